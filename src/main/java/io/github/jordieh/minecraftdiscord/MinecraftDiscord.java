@@ -20,15 +20,25 @@ package io.github.jordieh.minecraftdiscord;
 import io.github.jordieh.minecraftdiscord.command.DiscordCommand;
 import io.github.jordieh.minecraftdiscord.command.LinkCommand;
 import io.github.jordieh.minecraftdiscord.command.UnlinkCommand;
+import io.github.jordieh.minecraftdiscord.common.MessageType;
+import io.github.jordieh.minecraftdiscord.configuration.ConfigurationHandler;
 import io.github.jordieh.minecraftdiscord.dependencies.DependencyHandler;
+import io.github.jordieh.minecraftdiscord.discord.ChatHandler;
 import io.github.jordieh.minecraftdiscord.discord.ClientHandler;
 import io.github.jordieh.minecraftdiscord.discord.CommandHandler;
+import io.github.jordieh.minecraftdiscord.discord.InboundHandler;
 import io.github.jordieh.minecraftdiscord.discord.LinkHandler;
+import io.github.jordieh.minecraftdiscord.discord.RoleCoalescer;
 import io.github.jordieh.minecraftdiscord.discord.RoleHandler;
+import io.github.jordieh.minecraftdiscord.discord.SessionHandler;
+import io.github.jordieh.minecraftdiscord.discord.WebhookHandler;
 import io.github.jordieh.minecraftdiscord.listeners.minecraft.AsyncPlayerChatListener;
+import io.github.jordieh.minecraftdiscord.listeners.minecraft.AsyncPlayerPreLoginListener;
 import io.github.jordieh.minecraftdiscord.listeners.minecraft.PlayerJoinListener;
+import io.github.jordieh.minecraftdiscord.listeners.minecraft.PlayerLoginListener;
 import io.github.jordieh.minecraftdiscord.listeners.minecraft.PlayerQuitListener;
 import io.github.jordieh.minecraftdiscord.metrics.MetricsHandler;
+import io.github.jordieh.minecraftdiscord.util.ConsoleAggregator;
 import io.github.jordieh.minecraftdiscord.util.ConsoleWorker;
 import io.github.jordieh.minecraftdiscord.util.LangUtil;
 import io.github.jordieh.minecraftdiscord.world.ChannelHandler;
@@ -45,8 +55,6 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
-import java.util.Queue;
-import java.util.concurrent.LinkedBlockingDeque;
 
 public final class MinecraftDiscord extends JavaPlugin {
 
@@ -55,9 +63,7 @@ public final class MinecraftDiscord extends JavaPlugin {
     @Getter private static MinecraftDiscord instance;
 
     private double startup;
-
-    public static final Queue<String> queue = new LinkedBlockingDeque<>();
-    public static boolean started = false;
+    private ConsoleWorker consoleWorker;
 
     @Override
     public void onEnable() {
@@ -70,6 +76,7 @@ public final class MinecraftDiscord extends JavaPlugin {
         logger.debug("Saving default configuration");
         getConfig().options().copyDefaults(true);
         saveDefaultConfig();
+        ConfigurationHandler.getInstance();
 
         saveResource("language/messages_en.properties", false);
         saveResource("language/messages.properties", false);
@@ -82,10 +89,23 @@ public final class MinecraftDiscord extends JavaPlugin {
     @Override
     public void onDisable() {
         if (!ClientHandler.crashed) {
-            RoleHandler.getInstance().clearConnectionUsers(false);
+            ChatHandler.getInstance().shutdown();
+            if (consoleWorker != null) {
+                ConsoleAggregator.getInstance().shutdown();
+                consoleWorker.shutdown(2000L);
+            }
+            RoleHandler.getInstance().clearConnectionRole();
+            RoleCoalescer.getInstance().shutdown(); // Before the request scheduler stops
             LinkHandler.getInstance().saveResources();
         }
+        if (consoleWorker == null) { // The bot never became ready, stop collecting the startup backlog
+            ConsoleAggregator.getInstance().shutdown();
+            ConsoleWorker.getBuffer().close();
+        }
         ClientHandler.getInstance().disable(false);
+        if (WebhookHandler.isInitialized()) {
+            WebhookHandler.getInstance().shutdown();
+        }
     }
 
     /**
@@ -97,28 +117,42 @@ public final class MinecraftDiscord extends JavaPlugin {
         }
 
         LangUtil.getInstance();
-        LinkHandler.getInstance();
+        try {
+            LinkHandler.getInstance();
+        } catch (IllegalStateException e) {
+            logger.error("\n#############################################\n" +
+                    "# The link storage could not be opened      #\n" +
+                    "# The plugin is disabled to keep links safe #\n" +
+                    "# Check the link-storage section and logs   #\n" +
+                    "#############################################", e);
+            ClientHandler.crashed = true; // Nothing has been started that has to be saved
+            getServer().getScheduler().runTask(this, () -> ClientHandler.getInstance().disable(true));
+            return;
+        }
+        SessionHandler.getInstance();
         MetricsHandler.getInstance();
         ChannelHandler.getInstance();
+        ChatHandler.getInstance();
+        InboundHandler.getInstance();
+        if (ConfigurationHandler.getInstance().getSnapshot().getMessageType() == MessageType.WEBHOOK) {
+            WebhookHandler.getInstance().resolveWebhooks();
+        }
         CommandHandler.getInstance();
         DependencyHandler.getInstance();
 
-//        DiscordAppender.process();
-
-        new ConsoleWorker().start();
-//        ChannelHandler.getInstance().getConnectedChannel("console").ifPresent((channel -> {
-//            for (String s : ChannelHandler.getInstance().consoleMessages) {
-//                ClientHandler.getInstance().sendMessage(channel, s);
-//            }
-//        }));
+        consoleWorker = new ConsoleWorker();
+        consoleWorker.start(); // Replays the startup backlog
 
-        RoleHandler.getInstance().clearConnectionUsers(true);
-        RoleHandler.getInstance().distributeConnectionRole();
+        RoleHandler roles = RoleHandler.getInstance();
+        getServer().getScheduler().runTask(this, roles::reconcileConnectionRole); // Players can only be listed on the main thread
 
         logger.debug("Registering Bukkit events");
+        getServer().getPluginManager().registerEvents(new AsyncPlayerPreLoginListener(), this);
+        getServer().getPluginManager().registerEvents(new PlayerLoginListener(), this);
         getServer().getPluginManager().registerEvents(new PlayerJoinListener(), this);
         getServer().getPluginManager().registerEvents(new PlayerQuitListener(), this);
         getServer().getPluginManager().registerEvents(new AsyncPlayerChatListener(), this);
+        getServer().getScheduler().runTask(this, SessionHandler.getInstance()::openOnline); // Players that joined before the bot was ready
 
         logger.debug("Registering commands");
         getCommand("link").setExecutor(new LinkCommand());
@@ -0,0 +1,137 @@
+/*
+ *     This file is part of MinecraftDiscord.
+ *
+ *     MinecraftDiscord is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     MinecraftDiscord is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with MinecraftDiscord.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.jordieh.minecraftdiscord.api;
+
+import io.github.jordieh.minecraftdiscord.common.LinkIndex;
+import io.github.jordieh.minecraftdiscord.discord.LinkHandler;
+import io.github.jordieh.minecraftdiscord.storage.LinkStore;
+import lombok.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lookups of linked accounts for other plugins.
+ * The synchronous methods are safe to call from any thread, but might query a database with the sqlite or mysql storage.
+ * The asynchronous and bulk methods never block the calling thread and complete their future on a MinecraftDiscord thread,
+ * use the Bukkit scheduler to continue on the main thread.
+ * The links are loaded once the Discord bot is ready, until then every method throws an {@link IllegalStateException}.
+ * Link changes are announced by the {@link io.github.jordieh.minecraftdiscord.api.events.PlayerAccountLinkEvent}
+ * and the {@link io.github.jordieh.minecraftdiscord.api.events.PlayerAccountUnLinkEvent}, which are always called on the main thread.
+ */
+public final class LinkedAccounts {
+
+    private static final int THREADS = 2;
+
+    private static LinkedAccounts instance;
+
+    private final Executor executor;
+
+    private LinkedAccounts() {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 30L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "LinkedAccounts #" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true); // Idle threads do not outlive a plugin reload
+        this.executor = executor;
+    }
+
+    public static synchronized LinkedAccounts getInstance() {
+        return instance == null ? instance = new LinkedAccounts() : instance;
+    }
+
+    public boolean isLinked(@NonNull UUID uuid) {
+        return this.store().getId(uuid) != LinkIndex.NONE;
+    }
+
+    public boolean isLinked(long id) {
+        return this.store().getUuid(id) != null;
+    }
+
+    /**
+     * @param uuid The Minecraft UUID
+     * @return the Discord user ID the player is linked to
+     */
+    public OptionalLong getDiscordId(@NonNull UUID uuid) {
+        long id = this.store().getId(uuid);
+        return id == LinkIndex.NONE ? OptionalLong.empty() : OptionalLong.of(id);
+    }
+
+    /**
+     * @param id The Discord user ID
+     * @return the Minecraft UUID the user is linked to
+     */
+    public Optional<UUID> getUuid(long id) {
+        return Optional.ofNullable(this.store().getUuid(id));
+    }
+
+    public CompletableFuture<OptionalLong> getDiscordIdAsync(@NonNull UUID uuid) {
+        LinkStore store = this.store();
+        return CompletableFuture.supplyAsync(() -> {
+            long id = store.getId(uuid);
+            return id == LinkIndex.NONE ? OptionalLong.empty() : OptionalLong.of(id);
+        }, this.executor);
+    }
+
+    public CompletableFuture<Optional<UUID>> getUuidAsync(long id) {
+        LinkStore store = this.store();
+        return CompletableFuture.supplyAsync(() -> Optional.ofNullable(store.getUuid(id)), this.executor);
+    }
+
+    /**
+     * Resolves many players at once, which takes far fewer queries than resolving them one by one
+     * @param uuids The Minecraft UUIDs, the collection is copied before this method returns
+     * @return the Discord user IDs by UUID, players that are not linked are left out
+     */
+    public CompletableFuture<Map<UUID, Long>> getDiscordIds(@NonNull Collection<UUID> uuids) {
+        LinkStore store = this.store();
+        Collection<UUID> copy = new ArrayList<>(uuids);
+        return CompletableFuture.supplyAsync(() -> Collections.unmodifiableMap(store.getIds(copy)), this.executor);
+    }
+
+    /**
+     * Resolves many users at once, which takes far fewer queries than resolving them one by one
+     * @param ids The Discord user IDs, the collection is copied before this method returns
+     * @return the Minecraft UUIDs by Discord user ID, users that are not linked are left out
+     */
+    public CompletableFuture<Map<Long, UUID>> getUuids(@NonNull Collection<Long> ids) {
+        LinkStore store = this.store();
+        Collection<Long> copy = new ArrayList<>(ids);
+        return CompletableFuture.supplyAsync(() -> Collections.unmodifiableMap(store.getUuids(copy)), this.executor);
+    }
+
+    private LinkStore store() {
+        if (!LinkHandler.isLoaded()) {
+            throw new IllegalStateException("The linked accounts have not been loaded yet, MinecraftDiscord waits for the bot to be ready");
+        }
+        return LinkHandler.getInstance().getStore();
+    }
+}
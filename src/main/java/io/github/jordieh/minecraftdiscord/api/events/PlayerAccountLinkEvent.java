@@ -18,6 +18,7 @@
 package io.github.jordieh.minecraftdiscord.api.events;
 
 import io.github.jordieh.minecraftdiscord.api.ConnectionRoute;
+import io.github.jordieh.minecraftdiscord.discord.ClientHandler;
 import lombok.Getter;
 import lombok.NonNull;
 import org.bukkit.Bukkit;
@@ -36,13 +37,21 @@ public class PlayerAccountLinkEvent extends Event {
     @Getter private final ConnectionRoute route;
     @Getter private final OfflinePlayer player;
     @Getter private final long userID;
-    @Getter private final IUser user;
+    @Getter private final IUser user; // Null if the user is not cached by the bot
     @Getter private final Date date;
 
     public PlayerAccountLinkEvent(@NonNull UUID uuid, @NonNull IUser user, @NonNull ConnectionRoute route) {
+        this(uuid, user.getLongID(), user, route);
+    }
+
+    public PlayerAccountLinkEvent(@NonNull UUID uuid, long userID, @NonNull ConnectionRoute route) {
+        this(uuid, userID, ClientHandler.getInstance().getClient().getUserByID(userID), route);
+    }
+
+    private PlayerAccountLinkEvent(UUID uuid, long userID, IUser user, ConnectionRoute route) {
         this.route = route;
         this.player = Bukkit.getOfflinePlayer(uuid);
-        this.userID = user.getLongID();
+        this.userID = userID;
         this.user = user;
         this.date = new Date(System.currentTimeMillis());
     }
@@ -18,6 +18,11 @@
 package io.github.jordieh.minecraftdiscord.command;
 
 import io.github.jordieh.minecraftdiscord.MinecraftDiscord;
+import io.github.jordieh.minecraftdiscord.configuration.ConfigurationHandler;
+import io.github.jordieh.minecraftdiscord.discord.LinkHandler;
+import io.github.jordieh.minecraftdiscord.discord.SessionHandler;
+import io.github.jordieh.minecraftdiscord.storage.LinkStore;
+import io.github.jordieh.minecraftdiscord.storage.LinkTransfer;
 import io.github.jordieh.minecraftdiscord.util.Translatable;
 import org.bukkit.Bukkit;
 import org.bukkit.command.Command;
@@ -25,12 +30,33 @@ import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 public class DiscordCommand extends Translatable implements CommandExecutor {
 
+    private final AtomicBoolean transferring = new AtomicBoolean();
+
     @Override
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
 
-        String invite = MinecraftDiscord.getInstance().getConfig().getString("invite");
+        if (args.length > 0 && args[0].equalsIgnoreCase("reload")) {
+            if (!sender.hasPermission("minecraftdiscord.reload")) {
+                sender.sendMessage(tr("command.discord.nopermission"));
+                return true;
+            }
+            ConfigurationHandler.getInstance().reload();
+            sender.sendMessage(tr("command.discord.reload"));
+            return true;
+        }
+
+        if (args.length > 0 && (args[0].equalsIgnoreCase("import") || args[0].equalsIgnoreCase("export"))) {
+            this.transfer(sender, args);
+            return true;
+        }
+
+        String invite = ConfigurationHandler.getInstance().getSnapshot().getInvite();
 
         if (invite.equals("0")) {
             sender.sendMessage(tr("command.discord.invite"));
@@ -52,4 +78,67 @@ public class DiscordCommand extends Translatable implements CommandExecutor {
         Bukkit.dispatchCommand(Bukkit.getConsoleSender(), message);
         return true;
     }
+
+    /**
+     * Imports or exports the links of a file in the plugin folder on another thread
+     */
+    private void transfer(CommandSender sender, String[] args) {
+        if (!sender.hasPermission("minecraftdiscord.transfer")) {
+            sender.sendMessage(tr("command.discord.nopermission"));
+            return;
+        }
+        if (args.length < 2) {
+            sender.sendMessage(tr("command.discord.transfer.usage"));
+            return;
+        }
+
+        MinecraftDiscord plugin = MinecraftDiscord.getInstance();
+        File file;
+        try {
+            File folder = plugin.getDataFolder().getCanonicalFile();
+            file = new File(folder, args[1]).getCanonicalFile();
+            if (!file.toPath().startsWith(folder.toPath()) || file.equals(folder)) {
+                sender.sendMessage(tr("command.discord.transfer.outside", args[1]));
+                return;
+            }
+        } catch (IOException e) {
+            sender.sendMessage(tr("command.discord.transfer.failed", args[1], String.valueOf(e.getMessage())));
+            return;
+        }
+
+        if (!this.transferring.compareAndSet(false, true)) {
+            sender.sendMessage(tr("command.discord.transfer.busy"));
+            return;
+        }
+
+        boolean importing = args[0].equalsIgnoreCase("import");
+        boolean overwrite = args.length > 2 && args[2].equalsIgnoreCase("overwrite");
+        LinkStore store = LinkHandler.getInstance().getStore();
+        LinkTransfer.Progress progress = result -> this.reply(sender, "command.discord.transfer.progress", result.getLines());
+
+        sender.sendMessage(tr("command.discord.transfer.started", file.getName()));
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+            try {
+                if (importing) {
+                    LinkTransfer.Result result = LinkTransfer.importLinks(store, file, overwrite, progress);
+                    SessionHandler.getInstance().refreshAll(); // Imported links bypass the link handler
+                    this.reply(sender, "command.discord.import", file.getName(), result.getLinked(),
+                            result.getUnchanged(), result.getConflicts(), result.getInvalid());
+                } else {
+                    this.reply(sender, "command.discord.export", LinkTransfer.exportLinks(store, file, progress), file.getName());
+                }
+            } catch (IOException e) {
+                this.reply(sender, "command.discord.transfer.failed", file.getName(), String.valueOf(e.getMessage()));
+            } finally {
+                this.transferring.set(false);
+            }
+        });
+    }
+
+    /**
+     * Translates and sends a message on the main thread
+     */
+    private void reply(CommandSender sender, String message, Object... objects) {
+        Bukkit.getScheduler().runTask(MinecraftDiscord.getInstance(), () -> sender.sendMessage(tr(message, objects)));
+    }
 }
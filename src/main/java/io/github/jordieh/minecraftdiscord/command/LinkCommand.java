@@ -17,6 +17,7 @@
 
 package io.github.jordieh.minecraftdiscord.command;
 
+import io.github.jordieh.minecraftdiscord.common.LinkCodeTable;
 import io.github.jordieh.minecraftdiscord.discord.LinkHandler;
 import io.github.jordieh.minecraftdiscord.util.Translatable;
 import org.bukkit.command.Command;
@@ -45,6 +46,10 @@ public class LinkCommand extends Translatable implements CommandExecutor {
         }
 
         int code = LinkHandler.getInstance().generateCode(player.getUniqueId());
+        if (code == LinkCodeTable.NONE) {
+            sender.sendMessage(tr("command.link.busy"));
+            return true;
+        }
         sender.sendMessage(tr("command.link.success", code));
         return true;
     }
@@ -34,6 +34,9 @@
 
 package io.github.jordieh.minecraftdiscord.command;
 
+import io.github.jordieh.minecraftdiscord.api.ConnectionRoute;
+import io.github.jordieh.minecraftdiscord.api.events.PlayerAccountUnLinkEvent;
+import io.github.jordieh.minecraftdiscord.common.UserPair;
 import io.github.jordieh.minecraftdiscord.discord.LinkHandler;
 import io.github.jordieh.minecraftdiscord.util.Translatable;
 import org.bukkit.command.Command;
@@ -60,7 +63,10 @@ public class UnlinkCommand extends Translatable implements CommandExecutor {
             return true;
         }
 
-        LinkHandler.getInstance().unlink(player.getUniqueId()); // TODO PlayerAccountUnlinkEvent
+        UserPair pair = LinkHandler.getInstance().unlink(player.getUniqueId());
+        if (!pair.isEmpty()) {
+            LinkHandler.getInstance().callEvent(() -> new PlayerAccountUnLinkEvent(pair.getRight(), pair.getLeft(), ConnectionRoute.MINECRAFT));
+        }
         sender.sendMessage(tr("command.unlink.success"));
         return true;
     }
@@ -0,0 +1,49 @@
+/*
+ *     This file is part of MinecraftDiscord.
+ *
+ *     MinecraftDiscord is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     MinecraftDiscord is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with MinecraftDiscord.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.jordieh.minecraftdiscord.common;
+
+import io.github.jordieh.minecraftdiscord.util.ConsoleLine;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sends the console lines of a minimum level, and optionally only those of certain loggers, to a connected channel
+ */
+@Getter
+public final class ConsoleRoute {
+
+    private final String channel;
+    private final int level; // Logback level integer
+    private final List<String> loggers; // Logger name prefixes, empty for all loggers
+
+    public ConsoleRoute(@NonNull String channel, int level, @NonNull List<String> loggers) {
+        this.channel = channel;
+        this.level = level;
+        this.loggers = Collections.unmodifiableList(loggers);
+    }
+
+    public boolean matches(@NonNull ConsoleLine line) {
+        if (line.getLevel() < this.level) {
+            return false;
+        }
+        return this.loggers.isEmpty() || this.loggers.stream().anyMatch(line.getLogger()::startsWith);
+    }
+}
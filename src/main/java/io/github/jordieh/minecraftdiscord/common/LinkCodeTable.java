@@ -0,0 +1,154 @@
+/*
+ *     This file is part of MinecraftDiscord.
+ *
+ *     MinecraftDiscord is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     MinecraftDiscord is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with MinecraftDiscord.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.jordieh.minecraftdiscord.common;
+
+import lombok.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pending link codes, indexed by code and by UUID so both lookups take constant time.
+ * Codes expire after a fixed time, which is tracked by a timing wheel with one slot per second:
+ * every slot only holds codes that expire in that second, so expiring never scans codes that are still valid.
+ * The amount of outstanding codes is capped to keep the memory bounded.
+ * This class is not thread-safe.
+ */
+public final class LinkCodeTable {
+
+    public static final int NONE = 0; // Codes always have six digits
+
+    private static final int MINIMUM_CODE = 100000;
+    private static final int CODES = 900000;
+    private static final long TICK = TimeUnit.SECONDS.toNanos(1);
+
+    private final Map<Integer, Entry> byCode = new HashMap<>();
+    private final Map<UUID, Entry> byUuid = new HashMap<>();
+    private final Entry[] wheel; // Slot -> First code that expires in that second
+    private final int capacity;
+    private final long start = System.nanoTime();
+    private long tick; // Last second that has been expired
+
+    /**
+     * @param capacity The maximum amount of outstanding codes
+     * @param expiration The amount of seconds a code remains valid
+     */
+    public LinkCodeTable(int capacity, int expiration) {
+        this.capacity = Math.max(1, Math.min(CODES / 10, capacity)); // Keeps generating a free code cheap
+        this.wheel = new Entry[Math.max(1, expiration) + 1];
+    }
+
+    public int size() {
+        return this.byCode.size();
+    }
+
+    /**
+     * Returns the pending code of a player, or generates a new one
+     * @param uuid The player that wants to link their account
+     * @return the code, or {@link #NONE} if too many codes are outstanding
+     */
+    public int generate(@NonNull UUID uuid) {
+        this.advance();
+        Entry entry = this.byUuid.get(uuid);
+        if (entry != null) {
+            return entry.code;
+        }
+        if (this.byCode.size() >= this.capacity) {
+            return NONE;
+        }
+
+        int code;
+        do {
+            code = MINIMUM_CODE + ThreadLocalRandom.current().nextInt(CODES);
+        } while (this.byCode.containsKey(code));
+
+        entry = new Entry(code, uuid, (int) ((this.tick + this.wheel.length - 1) % this.wheel.length));
+        this.byCode.put(code, entry);
+        this.byUuid.put(uuid, entry);
+        Entry head = this.wheel[entry.slot];
+        if (head != null) {
+            head.previous = entry;
+            entry.next = head;
+        }
+        this.wheel[entry.slot] = entry;
+        return code;
+    }
+
+    /**
+     * Removes a code so it can only be used once
+     * @param code The code that has been entered
+     * @return the player the code belongs to, or null if it does not exist or has expired
+     */
+    public UUID take(int code) {
+        this.advance();
+        Entry entry = this.byCode.get(code);
+        if (entry == null) {
+            return null;
+        }
+        this.remove(entry);
+        return entry.uuid;
+    }
+
+    /**
+     * Expires every code whose second has passed since the last call
+     */
+    private void advance() {
+        long now = (System.nanoTime() - this.start) / TICK;
+        // Every slot is visited at most once, older codes would already have expired
+        for (long tick = Math.max(this.tick + 1, now - this.wheel.length + 1); tick <= now; tick++) {
+            int slot = (int) (tick % this.wheel.length);
+            for (Entry entry = this.wheel[slot]; entry != null; entry = entry.next) {
+                this.byCode.remove(entry.code);
+                this.byUuid.remove(entry.uuid);
+            }
+            this.wheel[slot] = null;
+        }
+        this.tick = Math.max(this.tick, now);
+    }
+
+    private void remove(Entry entry) {
+        this.byCode.remove(entry.code);
+        this.byUuid.remove(entry.uuid);
+        if (entry.previous == null) {
+            this.wheel[entry.slot] = entry.next;
+        } else {
+            entry.previous.next = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.previous = entry.previous;
+        }
+    }
+
+    private static final class Entry {
+
+        private final int code;
+        private final UUID uuid;
+        private final int slot;
+        private Entry previous;
+        private Entry next;
+
+        private Entry(int code, UUID uuid, int slot) {
+            this.code = code;
+            this.uuid = uuid;
+            this.slot = slot;
+        }
+    }
+}
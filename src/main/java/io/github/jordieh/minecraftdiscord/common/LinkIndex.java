@@ -0,0 +1,269 @@
+/*
+ *     This file is part of MinecraftDiscord.
+ *
+ *     MinecraftDiscord is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     MinecraftDiscord is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with MinecraftDiscord.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.jordieh.minecraftdiscord.common;
+
+import lombok.NonNull;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Bidirectional index between Discord user IDs and Minecraft UUIDs with constant time lookups in both directions.
+ * Links are stored in parallel primitive arrays (ID, most and least significant UUID bits) that are referenced by
+ * two open addressing tables, so neither direction boxes its keys.
+ * This class is not thread-safe.
+ */
+public final class LinkIndex {
+
+    public static final long NONE = 0L; // Discord snowflakes are never 0
+
+    private static final int EMPTY = -1;
+
+    private long[] ids;
+    private long[] most;
+    private long[] least;
+    private int size;
+
+    private int[] byId; // Slot -> Link index
+    private int[] byUuid; // Slot -> Link index
+    private int mask;
+
+    public LinkIndex(int expected) {
+        int capacity = Math.max(16, expected);
+        this.ids = new long[capacity];
+        this.most = new long[capacity];
+        this.least = new long[capacity];
+        this.allocateTables(tableSize(capacity));
+    }
+
+    public LinkIndex() {
+        this(16);
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean containsId(long id) {
+        return this.byId[this.slotOfId(id)] != EMPTY;
+    }
+
+    public boolean containsUuid(@NonNull UUID uuid) {
+        return this.byUuid[this.slotOfUuid(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits())] != EMPTY;
+    }
+
+    /**
+     * @param id The Discord user ID
+     * @return the linked UUID, or null if the user is not linked
+     */
+    public UUID getUuid(long id) {
+        int link = this.byId[this.slotOfId(id)];
+        return link == EMPTY ? null : new UUID(this.most[link], this.least[link]);
+    }
+
+    /**
+     * @param uuid The Minecraft UUID
+     * @return the linked Discord user ID, or {@link #NONE} if the player is not linked
+     */
+    public long getId(@NonNull UUID uuid) {
+        int link = this.byUuid[this.slotOfUuid(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits())];
+        return link == EMPTY ? NONE : this.ids[link];
+    }
+
+    /**
+     * Links the ID to the UUID, existing links of either side are removed first
+     */
+    public void put(long id, @NonNull UUID uuid) {
+        this.removeId(id);
+        this.removeUuid(uuid);
+
+        if (this.size == this.ids.length) {
+            int capacity = this.size * 2;
+            this.ids = Arrays.copyOf(this.ids, capacity);
+            this.most = Arrays.copyOf(this.most, capacity);
+            this.least = Arrays.copyOf(this.least, capacity);
+        }
+        if (tableSize(this.size + 1) > this.byId.length) {
+            this.allocateTables(this.byId.length * 2);
+            for (int link = 0; link < this.size; link++) {
+                this.byId[this.slotOfId(this.ids[link])] = link;
+                this.byUuid[this.slotOfUuid(this.most[link], this.least[link])] = link;
+            }
+        }
+
+        int link = this.size++;
+        this.ids[link] = id;
+        this.most[link] = uuid.getMostSignificantBits();
+        this.least[link] = uuid.getLeastSignificantBits();
+        this.byId[this.slotOfId(id)] = link;
+        this.byUuid[this.slotOfUuid(this.most[link], this.least[link])] = link;
+    }
+
+    /**
+     * @return the UUID that was linked to the ID, or null if the ID was not linked
+     */
+    public UUID removeId(long id) {
+        int link = this.byId[this.slotOfId(id)];
+        if (link == EMPTY) {
+            return null;
+        }
+        UUID uuid = new UUID(this.most[link], this.least[link]);
+        this.remove(link);
+        return uuid;
+    }
+
+    /**
+     * @return the ID that was linked to the UUID, or {@link #NONE} if the UUID was not linked
+     */
+    public long removeUuid(@NonNull UUID uuid) {
+        int link = this.byUuid[this.slotOfUuid(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits())];
+        if (link == EMPTY) {
+            return NONE;
+        }
+        long id = this.ids[link];
+        this.remove(link);
+        return id;
+    }
+
+    public void forEach(@NonNull ObjLongConsumer<UUID> consumer) {
+        for (int link = 0; link < this.size; link++) {
+            consumer.accept(new UUID(this.most[link], this.least[link]), this.ids[link]);
+        }
+    }
+
+    /**
+     * @return an independent copy of this index
+     */
+    public LinkIndex copy() {
+        LinkIndex copy = new LinkIndex(this.ids.length);
+        copy.ids = this.ids.clone();
+        copy.most = this.most.clone();
+        copy.least = this.least.clone();
+        copy.size = this.size;
+        copy.byId = this.byId.clone();
+        copy.byUuid = this.byUuid.clone();
+        copy.mask = this.mask;
+        return copy;
+    }
+
+    /**
+     * @return a copy of all links as a regular map
+     */
+    public Map<Long, UUID> toMap() {
+        Map<Long, UUID> map = new HashMap<>(this.size * 2);
+        this.forEach((uuid, id) -> map.put(id, uuid));
+        return map;
+    }
+
+    private void remove(int link) {
+        this.delete(this.byId, this.slotOfId(this.ids[link]), true);
+        this.delete(this.byUuid, this.slotOfUuid(this.most[link], this.least[link]), false);
+
+        int last = --this.size;
+        if (link != last) { // Move the last link into the gap so the arrays stay dense
+            this.byId[this.slotOfId(this.ids[last])] = link;
+            this.byUuid[this.slotOfUuid(this.most[last], this.least[last])] = link;
+            this.ids[link] = this.ids[last];
+            this.most[link] = this.most[last];
+            this.least[link] = this.least[last];
+        }
+    }
+
+    /**
+     * Removes a slot from a linear probing table by shifting the following entries back
+     */
+    private void delete(int[] table, int slot, boolean id) {
+        int hole = slot;
+        int next = (hole + 1) & this.mask;
+        while (table[next] != EMPTY) {
+            int link = table[next];
+            int home = (id ? hash(this.ids[link]) : hash(this.most[link], this.least[link])) & this.mask;
+            if (((next - home) & this.mask) >= ((next - hole) & this.mask)) {
+                table[hole] = link;
+                hole = next;
+            }
+            next = (next + 1) & this.mask;
+        }
+        table[hole] = EMPTY;
+    }
+
+    /**
+     * Probes the table that is read once, so its mask always matches its length, and gives up after a full round.
+     * This keeps lookups that race with a resize (optimistic reads in {@code ConcurrentLinkIndex}) from looping,
+     * their result is discarded anyway.
+     * @return the slot that contains the ID, or the empty slot it would be inserted into
+     */
+    private int slotOfId(long id) {
+        int[] table = this.byId;
+        long[] ids = this.ids;
+        int mask = table.length - 1;
+        int slot = hash(id) & mask;
+        for (int probes = 0; probes < mask && table[slot] != EMPTY && ids[table[slot]] != id; probes++) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * @see #slotOfId(long)
+     * @return the slot that contains the UUID, or the empty slot it would be inserted into
+     */
+    private int slotOfUuid(long most, long least) {
+        int[] table = this.byUuid;
+        long[] mostBits = this.most;
+        long[] leastBits = this.least;
+        int mask = table.length - 1;
+        int slot = hash(most, least) & mask;
+        for (int probes = 0; probes < mask && table[slot] != EMPTY
+                && (mostBits[table[slot]] != most || leastBits[table[slot]] != least); probes++) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void allocateTables(int length) {
+        this.byId = new int[length];
+        this.byUuid = new int[length];
+        Arrays.fill(this.byId, EMPTY);
+        Arrays.fill(this.byUuid, EMPTY);
+        this.mask = length - 1;
+    }
+
+    /**
+     * @return the power of two table size that keeps the load factor at or below 0.5
+     */
+    private static int tableSize(int links) {
+        return Integer.highestOneBit(Math.max(8, links) * 4 - 1);
+    }
+
+    private static int hash(long value) {
+        value ^= value >>> 33; // MurmurHash3 finalizer
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return (int) value;
+    }
+
+    private static int hash(long most, long least) {
+        return hash(most * 31 + least);
+    }
+}
@@ -20,7 +20,7 @@ package io.github.jordieh.minecraftdiscord.common;
 public enum MessageType {
 
     MESSAGE,
-    @Deprecated WEBHOOK,
+    WEBHOOK,
     EMBED,
     EMBED_ADVANCED
 
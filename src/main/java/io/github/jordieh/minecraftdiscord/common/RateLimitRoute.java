@@ -0,0 +1,39 @@
+/*
+ *     This file is part of MinecraftDiscord.
+ *
+ *     MinecraftDiscord is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     MinecraftDiscord is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with MinecraftDiscord.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.jordieh.minecraftdiscord.common;
+
+/**
+ * Discord rate limit buckets, the limits are used to pace requests until Discord reports the actual limits
+ */
+public enum RateLimitRoute {
+
+    GLOBAL(50, 1000L),
+    CHANNEL_MESSAGES(5, 5000L),
+    MESSAGE_DELETE(5, 1000L),
+    MEMBER_ROLES(10, 10000L),
+    WEBHOOK(5, 2000L);
+
+    public final int limit;
+    public final long window; // Milliseconds
+
+    RateLimitRoute(int limit, long window) {
+        this.limit = limit;
+        this.window = window;
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+ *     This file is part of MinecraftDiscord.
+ *
+ *     MinecraftDiscord is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     MinecraftDiscord is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with MinecraftDiscord.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.jordieh.minecraftdiscord.common;
+
+/**
+ * Priority classes of outgoing Discord requests, declared from the highest to the lowest priority
+ */
+public enum RequestPriority {
+
+    COMMAND(256, OverflowPolicy.REJECT),
+    CHAT(2048, OverflowPolicy.DISCARD_OLDEST),
+    DELETE(512, OverflowPolicy.DISCARD_OLDEST),
+    ROLE(8192, OverflowPolicy.REJECT),
+    CONSOLE(1024, OverflowPolicy.DISCARD_OLDEST);
+
+    public final int capacity;
+    public final OverflowPolicy policy;
+
+    RequestPriority(int capacity, OverflowPolicy policy) {
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+}
@@ -0,0 +1,69 @@
+/*
+ *     This file is part of MinecraftDiscord.
+ *
+ *     MinecraftDiscord is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     MinecraftDiscord is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with MinecraftDiscord.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.jordieh.minecraftdiscord.configuration;
+
+import io.github.jordieh.minecraftdiscord.MinecraftDiscord;
+import io.github.jordieh.minecraftdiscord.common.MessageType;
+import io.github.jordieh.minecraftdiscord.discord.RoleHandler;
+import io.github.jordieh.minecraftdiscord.discord.WebhookHandler;
+import io.github.jordieh.minecraftdiscord.util.LangUtil;
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Owns the current {@link ConfigurationSnapshot}, hot paths should always read the snapshot instead of the config.yml
+ */
+public final class ConfigurationHandler {
+
+    private final Logger logger = LoggerFactory.getLogger(ConfigurationHandler.class);
+
+    private static ConfigurationHandler instance;
+
+    @Getter private volatile ConfigurationSnapshot snapshot;
+
+    private ConfigurationHandler() {
+        logger.debug("Constructing ConfigurationHandler");
+        this.snapshot = ConfigurationSnapshot.of(MinecraftDiscord.getInstance().getConfig());
+    }
+
+    public static ConfigurationHandler getInstance() {
+        return instance == null ? instance = new ConfigurationHandler() : instance;
+    }
+
+    /**
+     * Reloads the config.yml from disk, publishes a new snapshot and rebuilds everything that depends on it.
+     * The token, presence, request scheduler and webhook connection settings still require a restart.
+     * Should only be called from the main thread.
+     */
+    public void reload() {
+        logger.debug("Reloading config.yml");
+        MinecraftDiscord plugin = MinecraftDiscord.getInstance();
+        plugin.reloadConfig();
+
+        ConfigurationSnapshot snapshot = ConfigurationSnapshot.of(plugin.getConfig());
+        this.snapshot = snapshot;
+
+        RoleHandler.getInstance().reload();
+        LangUtil.getInstance().updateLocale(snapshot.getLanguage());
+        if (snapshot.getMessageType() == MessageType.WEBHOOK) {
+            WebhookHandler.getInstance().resolveWebhooks();
+        }
+        logger.info("The configuration has been reloaded");
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ *     This file is part of MinecraftDiscord.
+ *
+ *     MinecraftDiscord is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     MinecraftDiscord is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with MinecraftDiscord.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.jordieh.minecraftdiscord.configuration;
+
+import ch.qos.logback.classic.Level;
+import io.github.jordieh.minecraftdiscord.common.ConsoleRoute;
+import io.github.jordieh.minecraftdiscord.common.MessageType;
+import io.github.jordieh.minecraftdiscord.common.Pair;
+import lombok.Getter;
+import lombok.NonNull;
+import org.bukkit.configuration.ConfigurationSection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Typed and immutable view of the config.yml, compiled once so it can safely be read from any thread.
+ * A new snapshot is published by the {@link ConfigurationHandler} every time the configuration is reloaded.
+ */
+@Getter
+public final class ConfigurationSnapshot {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConfigurationSnapshot.class);
+
+    private final String invite;
+
+    private final Map<String, Long> channels; // Name -> Channel ID
+    private final Map<String, Long> integrationChannels; // Dependency@Name -> Channel ID
+
+    private final boolean disableAutomatedUsers;
+    private final boolean requireLinking;
+    private final int truncationSize;
+    private final String messageRender;
+    private final MessageType messageType;
+    private final String language;
+
+    private final boolean chatCoalescing;
+    private final long minimumChatDelay;
+    private final long maximumChatDelay;
+    private final long inboundBudget; // Nanoseconds per tick
+
+    private final int linkCodeExpiration; // Seconds
+    private final int maximumLinkCodes;
+    private final int linkAttempts; // Invalid codes per Discord user
+    private final long linkAttemptWindow; // Seconds
+
+    private final boolean connectionRoleEnabled;
+    private final long connectionRole;
+
+    private final List<Pair<Pattern, String>> translatedExpressions;
+
+    private final List<ConsoleRoute> consoleRoutes;
+    private final int consoleSpillThreshold; // Characters per flush
+    private final boolean consoleSpillCompression;
+
+    private final long synchronizationTime; // Seconds
+    private final long synchronizationBudget; // Nanoseconds per tick
+    private final long roleCoalescingDelay; // Milliseconds
+    private final List<Long> synchronizableRoles;
+
+    private ConfigurationSnapshot(ConfigurationSection configuration) {
+        this.invite = configuration.getString("invite", "0");
+
+        Map<String, Long> channels = new HashMap<>();
+        Map<String, Long> integrationChannels = new HashMap<>();
+        ConfigurationSection section = configuration.getConfigurationSection("channels");
+        if (section != null) {
+            section.getValues(false).forEach((key, value) -> {
+                if (!(value instanceof Number)) {
+                    return;
+                }
+                // An @ indicates a plugin hook, these are registered separately
+                (key.contains("@") ? integrationChannels : channels).put(key, ((Number) value).longValue());
+            });
+        }
+        this.channels = Collections.unmodifiableMap(channels);
+        this.integrationChannels = Collections.unmodifiableMap(integrationChannels);
+
+        this.disableAutomatedUsers = configuration.getBoolean("options.disable-automated-users");
+        this.requireLinking = configuration.getBoolean("options.require-linking");
+        this.truncationSize = configuration.getInt("options.truncation-size", 256);
+        this.messageRender = configuration.getString("options.message-render", "");
+        this.language = configuration.getString("options.language");
+
+        MessageType messageType;
+        try {
+            messageType = MessageType.valueOf(configuration.getString("options.message-type", "").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            messageType = MessageType.MESSAGE;
+        }
+        this.messageType = messageType;
+
+        this.chatCoalescing = configuration.getBoolean("chat-coalescing.enabled", true);
+        this.minimumChatDelay = Math.max(0, configuration.getLong("chat-coalescing.minimum-delay", 250));
+        this.maximumChatDelay = Math.max(this.minimumChatDelay, configuration.getLong("chat-coalescing.maximum-delay", 1500));
+        this.inboundBudget = (long) (Math.max(0.05, configuration.getDouble("inbound.tick-budget", 1.0)) * 1000000.0);
+
+        this.linkCodeExpiration = Math.max(10, configuration.getInt("link-codes.expiration", 300));
+        this.maximumLinkCodes = Math.max(1, configuration.getInt("link-codes.maximum-codes", 1000));
+        this.linkAttempts = Math.max(1, configuration.getInt("link-codes.maximum-attempts", 5));
+        this.linkAttemptWindow = Math.max(1, configuration.getLong("link-codes.attempt-window", 600));
+
+        this.connectionRoleEnabled = configuration.getBoolean("connection-role.enabled");
+        this.connectionRole = configuration.getLong("connection-role.unique");
+
+        List<Pair<Pattern, String>> expressions = new ArrayList<>();
+        section = configuration.getConfigurationSection("translated-expressions");
+        if (section != null) {
+            section.getValues(false).forEach((key, value) -> {
+                if (!(value instanceof String)) {
+                    return;
+                }
+                try {
+                    expressions.add(new Pair<>(Pattern.compile(key), (String) value));
+                } catch (PatternSyntaxException e) {
+                    logger.warn("Ignoring invalid translated expression '{}': {}", key, e.getDescription());
+                }
+            });
+        }
+        this.translatedExpressions = Collections.unmodifiableList(expressions);
+
+        List<ConsoleRoute> routes = new ArrayList<>();
+        for (Map<?, ?> map : configuration.getMapList("console.routes")) {
+            Object channel = map.get("channel");
+            if (channel == null) {
+                logger.warn("Ignoring console route without a channel");
+                continue;
+            }
+            Object level = map.get("level");
+            Object loggers = map.get("loggers");
+            List<String> prefixes = new ArrayList<>();
+            if (loggers instanceof List) {
+                ((List<?>) loggers).forEach(o -> prefixes.add(String.valueOf(o)));
+            }
+            routes.add(new ConsoleRoute(channel.toString(), Level.toLevel(String.valueOf(level), Level.INFO).toInt(), prefixes));
+        }
+        if (routes.isEmpty()) { // Relay everything to the console channel, like before routes existed
+            routes.add(new ConsoleRoute("console", Level.ALL.toInt(), Collections.emptyList()));
+        }
+        this.consoleRoutes = Collections.unmodifiableList(routes);
+        this.consoleSpillThreshold = Math.max(2000, configuration.getInt("console.spill-threshold", 8000));
+        this.consoleSpillCompression = configuration.getBoolean("console.spill-compression", true);
+
+        this.synchronizationTime = Math.max(1, configuration.getLong("role-synchronization.synchronization-time", 300));
+        this.synchronizationBudget = (long) (Math.max(0.05, configuration.getDouble("role-synchronization.tick-budget", 0.5)) * 1000000.0);
+        this.roleCoalescingDelay = Math.max(0, configuration.getLong("role-synchronization.coalescing-delay", 2000));
+        this.synchronizableRoles = Collections.unmodifiableList(new ArrayList<>(configuration.getLongList("role-synchronization.synchronizable-roles")));
+    }
+
+    /**
+     * Compiles a new snapshot
+     * @param configuration The configuration to read, should only be accessed from the main thread
+     * @return the immutable snapshot
+     */
+    public static ConfigurationSnapshot of(@NonNull ConfigurationSection configuration) {
+        return new ConfigurationSnapshot(configuration);
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ *     This file is part of MinecraftDiscord.
+ *
+ *     MinecraftDiscord is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     MinecraftDiscord is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with MinecraftDiscord.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.jordieh.minecraftdiscord.discord;
+
+import io.github.jordieh.minecraftdiscord.common.MessageType;
+import io.github.jordieh.minecraftdiscord.configuration.ConfigurationHandler;
+import io.github.jordieh.minecraftdiscord.configuration.ConfigurationSnapshot;
+import io.github.jordieh.minecraftdiscord.util.FormatUtil;
+import lombok.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sx.blah.discord.handle.obj.IChannel;
+import sx.blah.discord.handle.obj.IWebhook;
+import sx.blah.discord.util.EmbedBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Buffers chat lines per Discord channel and flushes them as a single message or embed
+ * once the (adaptive) coalescing window has passed
+ */
+public final class ChatHandler {
+
+    private final Logger logger = LoggerFactory.getLogger(ChatHandler.class);
+
+    private static ChatHandler instance;
+
+    private static final int MESSAGE_LIMIT = 2000; // Maximum amount of characters in a Discord message
+    private static final int FIELD_LIMIT = 25; // Maximum amount of fields in a single embed
+    private static final int FIELD_VALUE_LIMIT = 1024;
+    private static final int EMBED_LIMIT = 6000; // Maximum amount of characters in a single embed
+    private static final double SMOOTHING = 0.3d;
+
+    private final Map<Long, ChannelBuffer> buffers;
+    private final ScheduledExecutorService executor;
+
+    private ChatHandler() {
+        logger.debug("Constructing ChatHandler");
+        this.buffers = new ConcurrentHashMap<>();
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ChatHandler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static ChatHandler getInstance() {
+        return instance == null ? instance = new ChatHandler() : instance;
+    }
+
+    /**
+     * Queues a chat line for the specified channel, the line will be sent together with all other
+     * lines that have been queued for the same channel within the coalescing window
+     * @param channel The channel to relay the line to
+     * @param type The way the line should be rendered in Discord
+     * @param name The name of the player that sent the message
+     * @param uuid The UUID of the player that sent the message
+     * @param message The chat message
+     */
+    public void queue(@NonNull IChannel channel, @NonNull MessageType type, @NonNull String name, @NonNull String uuid, @NonNull String message) {
+        ChatLine line = new ChatLine(type, name, uuid, message);
+
+        ConfigurationSnapshot configuration = ConfigurationHandler.getInstance().getSnapshot();
+        if (!configuration.isChatCoalescing()) {
+            this.send(channel, line);
+            return;
+        }
+
+        ChannelBuffer buffer = this.buffers.computeIfAbsent(channel.getLongID(), id -> new ChannelBuffer(channel));
+        synchronized (buffer) {
+            buffer.lines.add(line);
+            buffer.characters += line.length();
+
+            if (buffer.characters >= MESSAGE_LIMIT || buffer.lines.size() >= FIELD_LIMIT) {
+                // There is no point in waiting any longer, the buffer can not grow into a single message
+                this.executor.execute(() -> this.flush(buffer));
+            } else if (!buffer.scheduled) {
+                buffer.scheduled = true;
+                this.executor.schedule(() -> this.flush(buffer), buffer.delay(configuration), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Flushes all buffered lines and stops the flushing thread
+     */
+    public void shutdown() {
+        this.buffers.values().forEach(this::flush);
+        this.executor.shutdown();
+    }
+
+    private void flush(ChannelBuffer buffer) {
+        List<ChatLine> lines;
+        synchronized (buffer) {
+            buffer.scheduled = false;
+            if (buffer.lines.isEmpty()) {
+                return;
+            }
+            lines = new ArrayList<>(buffer.lines);
+            buffer.lines.clear();
+            buffer.characters = 0;
+            buffer.depth = buffer.depth + SMOOTHING * (lines.size() - buffer.depth);
+        }
+
+        logger.trace("Flushing {} chat lines to #{}", lines.size(), buffer.channel.getName());
+
+        if (lines.size() == 1) {
+            this.send(buffer.channel, lines.get(0));
+            return;
+        }
+
+        int start = 0;
+        for (int i = 1; i <= lines.size(); i++) { // Split the lines in runs of the same message type
+            if (i == lines.size() || lines.get(i).type != lines.get(start).type) {
+                List<ChatLine> run = lines.subList(start, i);
+                if (run.get(0).type == MessageType.MESSAGE) {
+                    this.sendMessages(buffer.channel, run);
+                } else if (run.get(0).type == MessageType.WEBHOOK) {
+                    this.sendWebhooks(buffer.channel, run);
+                } else {
+                    this.sendEmbeds(buffer.channel, run);
+                }
+                start = i;
+            }
+        }
+    }
+
+    private void send(IChannel channel, ChatLine line) {
+        if (line.type == MessageType.WEBHOOK) {
+            Optional<IWebhook> webhook = WebhookHandler.getInstance().getWebhook(channel, line.uuid);
+            if (webhook.isPresent()) {
+                WebhookHandler.getInstance().sendWebhook(webhook.get(), line.name, line.message, FormatUtil.avatarUrl(line.uuid));
+                return;
+            }
+        }
+
+        switch (line.type) {
+            case MESSAGE: {
+                ClientHandler.getInstance().sendMessage(channel, line.toString());
+                break;
+            }
+            case EMBED: {
+                EmbedBuilder builder = new EmbedBuilder();
+                builder.withDescription(line.message);
+                builder.withAuthorName(line.name);
+                builder.withAuthorIcon(FormatUtil.avatarUrl(line.uuid));
+                ClientHandler.getInstance().sendMessage(channel, builder.build());
+                break;
+            }
+            default: {
+                EmbedBuilder builder = new EmbedBuilder();
+                builder.withDescription(line.message);
+                builder.withAuthorName(line.name);
+                builder.withThumbnail(FormatUtil.avatarUrl(line.uuid));
+                ClientHandler.getInstance().sendMessage(channel, builder.build());
+                break;
+            }
+        }
+    }
+
+    private void sendMessages(IChannel channel, List<ChatLine> lines) {
+        StringBuilder builder = new StringBuilder();
+        for (ChatLine line : lines) {
+            String s = FormatUtil.truncateString(line.toString(), MESSAGE_LIMIT);
+            if (builder.length() > 0 && builder.length() + s.length() + 1 > MESSAGE_LIMIT) {
+                ClientHandler.getInstance().sendMessage(channel, builder.toString());
+                builder = new StringBuilder();
+            }
+            if (builder.length() > 0) {
+                builder.append('\n');
+            }
+            builder.append(s);
+        }
+        ClientHandler.getInstance().sendMessage(channel, builder.toString());
+    }
+
+    /**
+     * Sends consecutive lines of the same player as a single webhook message
+     */
+    private void sendWebhooks(IChannel channel, List<ChatLine> lines) {
+        if (!WebhookHandler.getInstance().getWebhook(channel, lines.get(0).uuid).isPresent()) { // The pool has not been resolved (yet)
+            this.sendEmbeds(channel, lines);
+            return;
+        }
+
+        ChatLine author = null;
+        StringBuilder builder = new StringBuilder();
+        for (ChatLine line : lines) {
+            String s = FormatUtil.truncateString(line.message, MESSAGE_LIMIT);
+            if (author != null && (!author.uuid.equals(line.uuid) || builder.length() + s.length() + 1 > MESSAGE_LIMIT)) {
+                this.sendWebhook(channel, author, builder.toString());
+                builder = new StringBuilder();
+            }
+            if (builder.length() > 0) {
+                builder.append('\n');
+            }
+            builder.append(s);
+            author = line;
+        }
+        if (author != null) {
+            this.sendWebhook(channel, author, builder.toString());
+        }
+    }
+
+    private void sendWebhook(IChannel channel, ChatLine author, String content) {
+        WebhookHandler.getInstance().getWebhook(channel, author.uuid).ifPresent(webhook ->
+                WebhookHandler.getInstance().sendWebhook(webhook, author.name, content, FormatUtil.avatarUrl(author.uuid)));
+    }
+
+    private void sendEmbeds(IChannel channel, List<ChatLine> lines) {
+        EmbedBuilder builder = new EmbedBuilder();
+        int fields = 0;
+        int characters = 0;
+        for (ChatLine line : lines) {
+            String value = FormatUtil.truncateString(line.message, FIELD_VALUE_LIMIT);
+            int length = line.name.length() + value.length();
+            if (fields > 0 && (fields == FIELD_LIMIT || characters + length > EMBED_LIMIT)) {
+                ClientHandler.getInstance().sendMessage(channel, builder.build());
+                builder = new EmbedBuilder();
+                fields = 0;
+                characters = 0;
+            }
+            builder.appendField(line.name, value, false);
+            fields++;
+            characters += length;
+        }
+        ClientHandler.getInstance().sendMessage(channel, builder.build());
+    }
+
+    private final class ChannelBuffer {
+
+        private final IChannel channel;
+        private final List<ChatLine> lines = new ArrayList<>();
+        private int characters;
+        private boolean scheduled;
+        private double depth = 1.0d; // Smoothed amount of lines per flush
+
+        private ChannelBuffer(IChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Quiet channels get flushed after the minimum delay, the window grows with the amount of lines
+         * that were recently flushed at once, but never exceeds the configured maximum delay
+         */
+        private long delay(ConfigurationSnapshot configuration) {
+            return Math.min(configuration.getMaximumChatDelay(), (long) (configuration.getMinimumChatDelay() * Math.max(1.0d, depth)));
+        }
+    }
+
+    private static final class ChatLine {
+
+        private final MessageType type;
+        private final String name;
+        private final String uuid;
+        private final String message;
+
+        private ChatLine(MessageType type, String name, String uuid, String message) {
+            this.type = type;
+            this.name = name;
+            this.uuid = uuid;
+            this.message = message;
+        }
+
+        private int length() {
+            return this.name.length() + this.message.length() + 3;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %s", this.name, this.message);
+        }
+    }
+}
@@ -18,7 +18,11 @@
 package io.github.jordieh.minecraftdiscord.discord;
 
 import io.github.jordieh.minecraftdiscord.MinecraftDiscord;
+import io.github.jordieh.minecraftdiscord.common.RateLimitRoute;
+import io.github.jordieh.minecraftdiscord.common.RequestPriority;
+import io.github.jordieh.minecraftdiscord.discord.RateLimitHandler.Bucket;
 import io.github.jordieh.minecraftdiscord.listeners.discord.MessageReceivedEventHandler;
+import io.github.jordieh.minecraftdiscord.listeners.discord.UserRoleUpdateEventHandler;
 import lombok.Getter;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.plugin.Plugin;
@@ -31,13 +35,24 @@ import sx.blah.discord.api.internal.json.objects.EmbedObject;
 import sx.blah.discord.handle.impl.events.ReadyEvent;
 import sx.blah.discord.handle.obj.ActivityType;
 import sx.blah.discord.handle.obj.IChannel;
+import sx.blah.discord.handle.obj.IGuild;
 import sx.blah.discord.handle.obj.IMessage;
 import sx.blah.discord.handle.obj.IRole;
 import sx.blah.discord.handle.obj.IUser;
+import sx.blah.discord.handle.obj.Permissions;
 import sx.blah.discord.handle.obj.StatusType;
 import sx.blah.discord.util.DiscordException;
 import sx.blah.discord.util.MissingPermissionsException;
-import sx.blah.discord.util.RequestBuffer;
+import sx.blah.discord.util.PermissionUtils;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class ClientHandler implements IListener<ReadyEvent> {
 
@@ -56,12 +71,15 @@ public class ClientHandler implements IListener<ReadyEvent> {
         FileConfiguration configuration = plugin.getConfig();
         String token = configuration.getString("token");
 
+        RequestScheduler.getInstance();
+
         logger.trace("Starting ClientBuilder");
         ClientBuilder builder = new ClientBuilder();
         builder.withRecommendedShardCount();
         builder.withToken(token);
         builder.registerListener(this); // ReadyEvent
         builder.registerListener(new MessageReceivedEventHandler()); // MessageReceivedEvent
+        builder.registerListener(new UserRoleUpdateEventHandler()); // UserRoleUpdateEvent
 
         try {
             logger.debug("Trying to connect to Discord");
@@ -86,8 +104,18 @@ public class ClientHandler implements IListener<ReadyEvent> {
         return instance == null ? instance = new ClientHandler() : instance;
     }
 
-    public final void request(Runnable runnable) {
-        RequestBuffer.request(() -> {
+    /**
+     * Queues a request in the {@link RequestScheduler}
+     * @param priority The priority class of the request
+     * @param key The lane of the request, usually the ID of the affected channel or user
+     * @param route The rate limited route of the request
+     * @param major The major parameter of the route (channel or guild ID)
+     * @param runnable The request
+     * @return true if the request has been queued, false if it has been dropped
+     */
+    public final boolean request(RequestPriority priority, long key, RateLimitRoute route, long major, Runnable runnable) {
+        Bucket bucket = RateLimitHandler.getInstance().getBucket(route, major);
+        return RequestScheduler.getInstance().submit(priority, key, bucket, () -> {
             try {
                 runnable.run();
             } catch (DiscordException e) {
@@ -102,45 +130,110 @@ public class ClientHandler implements IListener<ReadyEvent> {
         });
     }
 
+    /**
+     * Gives a role through the {@link RoleCoalescer}, so it is combined with other changes of the user
+     */
     public void giveRole(IRole role, IUser user) {
-        request(() -> {
-            if (!user.hasRole(role)) {
-                logger.trace("Attempting to give user {} role [{}] ({})", user.getLongID(), role.getName(), role.getLongID());
-                user.addRole(role);
-            }
-        });
+        RoleCoalescer.getInstance().change(role, user, true);
     }
 
+    /**
+     * Removes a role through the {@link RoleCoalescer}, so it is combined with other changes of the user
+     */
     public void removeRole(IRole role, IUser user) {
-        request(() -> {
-            if (user.hasRole(role)) {
-                logger.trace("Attempting to remove role [{}] ({}) from user {}", role.getName(), role.getLongID(), user.getLongID());
-                user.removeRole(role);
+        RoleCoalescer.getInstance().change(role, user, false);
+    }
+
+    /**
+     * Applies the coalesced role changes of a user with a single member roles edit per guild.
+     * The role set is built from the member state when the request is sent, so nothing is sent if the changes
+     * do not change it. Changes to roles above the bot are skipped, and if the user keeps a role above the bot
+     * (which refuses the edit of the whole set) the changed roles are edited one by one instead.
+     * @param user The user to edit
+     * @param changes Role -> Whether the user should have it
+     */
+    public void editRoles(IUser user, Map<IRole, Boolean> changes) {
+        Map<IGuild, Map<IRole, Boolean>> guilds = new LinkedHashMap<>();
+        changes.forEach((role, granted) -> guilds.computeIfAbsent(role.getGuild(), guild -> new LinkedHashMap<>()).put(role, granted));
+
+        guilds.forEach((guild, roles) -> request(RequestPriority.ROLE, user.getLongID(), RateLimitRoute.MEMBER_ROLES, guild.getLongID(), () -> {
+            IUser self = this.client.getOurUser();
+            Set<IRole> current = new LinkedHashSet<>(user.getRolesForGuild(guild));
+            current.remove(guild.getEveryoneRole());
+            Set<IRole> result = new LinkedHashSet<>(current);
+            roles.forEach((role, granted) -> {
+                if (!PermissionUtils.hasHierarchicalPermissions(guild, self, Collections.singletonList(role), Permissions.MANAGE_ROLES)) {
+                    logger.warn("Role [{}] ({}) is above the bot role and can not be changed, please edit the bot role", role.getName(), role.getLongID());
+                } else if (granted) {
+                    result.add(role);
+                } else {
+                    result.remove(role);
+                }
+            });
+            if (result.equals(current)) {
+                return;
             }
-        });
+
+            List<IRole> edit = new ArrayList<>(result);
+            if (PermissionUtils.hasHierarchicalPermissions(guild, self, edit, Permissions.MANAGE_ROLES)) {
+                logger.trace("Attempting to change {} roles of user {}", roles.size(), user.getLongID());
+                guild.editUserRoles(user, edit.toArray(new IRole[0]));
+                return;
+            }
+
+            logger.debug("User {} has a role above the bot, changing its roles one by one", user.getLongID());
+            result.stream().filter(role -> !current.contains(role)).forEach(role ->
+                    request(RequestPriority.ROLE, user.getLongID(), RateLimitRoute.MEMBER_ROLES, guild.getLongID(), () -> user.addRole(role)));
+            current.stream().filter(role -> !result.contains(role)).forEach(role ->
+                    request(RequestPriority.ROLE, user.getLongID(), RateLimitRoute.MEMBER_ROLES, guild.getLongID(), () -> user.removeRole(role)));
+        }));
     }
 
     public void deleteMessage(IMessage message) {
-        request(() -> {
+        long channel = message.getChannel().getLongID();
+        request(RequestPriority.DELETE, channel, RateLimitRoute.MESSAGE_DELETE, channel, () -> {
             logger.trace("Attempting to delete message {} in #{}", message.getLongID(), message.getChannel().getName());
             message.delete();
         });
     }
 
     public void sendMessage(IChannel channel, String message) {
-        request(() -> {
+        this.sendMessage(channel, message, RequestPriority.CHAT);
+    }
+
+    public void sendMessage(IChannel channel, String message, RequestPriority priority) {
+        request(priority, channel.getLongID(), RateLimitRoute.CHANNEL_MESSAGES, channel.getLongID(), () -> {
             logger.trace("Attempting to send '{}' to #{}", message, channel.getName());
             channel.sendMessage(message);
         });
     }
 
     public void sendMessage(IChannel channel, EmbedObject embed) {
-        request(() -> {
+        this.sendMessage(channel, embed, RequestPriority.CHAT);
+    }
+
+    public void sendMessage(IChannel channel, EmbedObject embed, RequestPriority priority) {
+        request(priority, channel.getLongID(), RateLimitRoute.CHANNEL_MESSAGES, channel.getLongID(), () -> {
             logger.trace("Attempting to send an embed to #{}", channel.getName());
             channel.sendMessage(embed);
         });
     }
 
+    /**
+     * Uploads a file, the content is kept in memory so the request can be retried
+     * @param channel The channel to upload the file to
+     * @param message The message to send together with the file
+     * @param content The content of the file
+     * @param fileName The name of the file
+     * @param priority The priority class of the request
+     */
+    public void sendFile(IChannel channel, String message, byte[] content, String fileName, RequestPriority priority) {
+        request(priority, channel.getLongID(), RateLimitRoute.CHANNEL_MESSAGES, channel.getLongID(), () -> {
+            logger.trace("Attempting to send file {} ({} bytes) to #{}", fileName, content.length, channel.getName());
+            channel.sendFile(message, new ByteArrayInputStream(content), fileName);
+        });
+    }
+
     public void disable(boolean force) {
         if ((client == null || !client.isReady()) && !force) {
             logger.trace("Waiting for ReadyEvent to call ClientHandler#disable();");
@@ -150,6 +243,7 @@ public class ClientHandler implements IListener<ReadyEvent> {
 
         logger.debug("Disabling plugin: Read previous output for more information");
         if (!force) {
+            RequestScheduler.getInstance().shutdown(5000L);
             client.logout();
         }
 
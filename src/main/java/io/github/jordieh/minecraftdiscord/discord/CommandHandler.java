@@ -18,6 +18,7 @@
 package io.github.jordieh.minecraftdiscord.discord;
 
 import io.github.jordieh.minecraftdiscord.MinecraftDiscord;
+import io.github.jordieh.minecraftdiscord.common.RequestPriority;
 import io.github.jordieh.minecraftdiscord.discord.command.CommandExecutor;
 import io.github.jordieh.minecraftdiscord.discord.command.InfoCommand;
 import io.github.jordieh.minecraftdiscord.discord.command.LinkCommand;
@@ -81,7 +82,8 @@ public class CommandHandler {
         if (this.stringMap.containsKey(command)) {
             this.logger.debug("Attempting to execute custom command {} in channel #{}", command, event.getChannel().getName());
             ClientHandler.getInstance().deleteMessage(event.getMessage());
-            event.getMessage().reply(this.stringMap.get(command));
+            String reply = event.getAuthor().mention() + ", " + this.stringMap.get(command);
+            ClientHandler.getInstance().sendMessage(event.getChannel(), reply, RequestPriority.COMMAND);
             return true;
         }
 
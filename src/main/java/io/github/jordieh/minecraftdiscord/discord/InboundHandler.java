@@ -0,0 +1,151 @@
+/*
+ *     This file is part of MinecraftDiscord.
+ *
+ *     MinecraftDiscord is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     MinecraftDiscord is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with MinecraftDiscord.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.jordieh.minecraftdiscord.discord;
+
+import io.github.jordieh.minecraftdiscord.MinecraftDiscord;
+import io.github.jordieh.minecraftdiscord.configuration.ConfigurationHandler;
+import io.github.jordieh.minecraftdiscord.util.FormatUtil;
+import io.github.jordieh.minecraftdiscord.util.Translatable;
+import lombok.NonNull;
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.command.CommandSender;
+import org.bukkit.permissions.Permissible;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands messages from Discord over to the main thread, where they are drained once per tick within the tick budget.
+ * Chat lines of the same tick are combined per audience, so the recipients are only looked up once per tick.
+ */
+public final class InboundHandler extends Translatable {
+
+    private final Logger logger = LoggerFactory.getLogger(InboundHandler.class);
+
+    private static InboundHandler instance;
+
+    private static final int QUEUE_LIMIT = 10000; // Messages that wait for the main thread
+
+    private final Queue<Inbound> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    private InboundHandler() {
+        logger.debug("Constructing InboundHandler");
+        Bukkit.getScheduler().scheduleSyncRepeatingTask(MinecraftDiscord.getInstance(), this::drain, 1L, 1L);
+    }
+
+    public static InboundHandler getInstance() {
+        return instance == null ? instance = new InboundHandler() : instance;
+    }
+
+    /**
+     * Queues a chat message that is broadcasted to all players
+     * @param channel The name of the Discord channel
+     * @param author The name of the Discord user
+     * @param content The formatted message
+     */
+    public void queueChat(@NonNull String channel, @NonNull String author, @NonNull String content) {
+        this.offer(new Inbound(Server.BROADCAST_CHANNEL_USERS, channel, author, content));
+    }
+
+    /**
+     * Queues a command that is dispatched as the console
+     * @param command The command, without a leading slash
+     */
+    public void queueCommand(@NonNull String command) {
+        this.offer(new Inbound(null, null, null, command));
+    }
+
+    private void offer(Inbound inbound) {
+        if (this.size.incrementAndGet() > QUEUE_LIMIT) {
+            this.size.decrementAndGet();
+            logger.warn("Dropping a message from Discord, more than {} messages are waiting for the server", QUEUE_LIMIT);
+            return;
+        }
+        this.queue.offer(inbound);
+    }
+
+    /**
+     * Handles queued messages until the tick budget is used up, at least one message is handled every tick
+     */
+    private void drain() {
+        if (this.queue.isEmpty()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        long budget = ConfigurationHandler.getInstance().getSnapshot().getInboundBudget();
+        Map<String, List<String>> audiences = new LinkedHashMap<>();
+        do {
+            Inbound inbound = this.queue.poll();
+            if (inbound == null) {
+                break;
+            }
+            this.size.decrementAndGet();
+
+            if (inbound.audience == null) {
+                this.broadcast(audiences); // Keep the order of chat and command output
+                audiences.clear();
+                Bukkit.dispatchCommand(Bukkit.getConsoleSender(), inbound.content);
+                continue;
+            }
+            String line = FormatUtil.formatColors(tr("discord.message.format", inbound.channel, inbound.author, inbound.content));
+            audiences.computeIfAbsent(inbound.audience, audience -> new ArrayList<>()).add(line);
+        } while (System.nanoTime() - start < budget);
+
+        this.broadcast(audiences);
+    }
+
+    /**
+     * Sends the lines to everyone that is subscribed to their audience, like {@link Server#broadcast(String, String)}
+     * but with a single lookup of the recipients per tick
+     */
+    private void broadcast(Map<String, List<String>> audiences) {
+        for (Map.Entry<String, List<String>> entry : audiences.entrySet()) {
+            String[] lines = entry.getValue().toArray(new String[0]);
+            for (Permissible permissible : Bukkit.getPluginManager().getPermissionSubscriptions(entry.getKey())) {
+                if (permissible instanceof CommandSender && permissible.hasPermission(entry.getKey())) {
+                    ((CommandSender) permissible).sendMessage(lines);
+                }
+            }
+        }
+    }
+
+    private static final class Inbound {
+
+        private final String audience; // Permission of the recipients, null for console commands
+        private final String channel;
+        private final String author;
+        private final String content;
+
+        private Inbound(String audience, String channel, String author, String content) {
+            this.audience = audience;
+            this.channel = channel;
+            this.author = author;
+            this.content = content;
+        }
+    }
+}
@@ -17,139 +17,213 @@
 
 package io.github.jordieh.minecraftdiscord.discord;
 
+import io.github.jordieh.minecraftdiscord.MinecraftDiscord;
+import io.github.jordieh.minecraftdiscord.configuration.ConfigurationHandler;
+import io.github.jordieh.minecraftdiscord.configuration.ConfigurationSnapshot;
+import io.github.jordieh.minecraftdiscord.common.LinkCodeTable;
+import io.github.jordieh.minecraftdiscord.common.LinkIndex;
 import io.github.jordieh.minecraftdiscord.common.UserPair;
-import io.github.jordieh.minecraftdiscord.configuration.PluginConfiguration;
+import io.github.jordieh.minecraftdiscord.storage.FileLinkStore;
+import io.github.jordieh.minecraftdiscord.storage.LinkCoordinator;
+import io.github.jordieh.minecraftdiscord.storage.LinkStore;
+import io.github.jordieh.minecraftdiscord.storage.SqlLinkStore;
+import io.github.jordieh.minecraftdiscord.storage.YamlLinkStore;
+import lombok.Getter;
 import lombok.NonNull;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.event.Event;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import sx.blah.discord.handle.obj.IUser;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ThreadLocalRandom;
-import java.util.stream.Collectors;
+import java.util.function.Supplier;
 
 public final class LinkHandler {
 
     private final Logger logger = LoggerFactory.getLogger(LinkHandler.class);
 
-    private static LinkHandler instance;
-
-    private final PluginConfiguration configuration;
-    private final Map<Integer, UUID> uuidMap;
-    private final Map<Long, UUID> linkMap;
-    private final String path;
+    private static volatile LinkHandler instance;
 
+    private final LinkCodeTable codes;
+    @Getter private final LinkStore store;
 
     private LinkHandler() {
         logger.debug("Constructing LinkHandler");
+        MinecraftDiscord plugin = MinecraftDiscord.getInstance();
+        FileConfiguration configuration = plugin.getConfig();
+
+        ConfigurationSnapshot snapshot = ConfigurationHandler.getInstance().getSnapshot();
+        this.codes = new LinkCodeTable(snapshot.getMaximumLinkCodes(), snapshot.getLinkCodeExpiration());
+        this.store = createStore(plugin.getDataFolder(), configuration);
+        if (this.store instanceof SqlLinkStore) {
+            ((SqlLinkStore) this.store).setNonBlocking(Bukkit::isPrimaryThread); // The main thread never waits for the database
+        }
+        if (configuration.getBoolean("link-storage.shared.enabled", false)) {
+            this.share(configuration);
+        }
+    }
 
-        this.path = "accounts";
-        this.configuration = new PluginConfiguration(this.path);
+    /**
+     * Opens the configured link storage
+     * @throws IllegalStateException if the storage can not be opened
+     */
+    private LinkStore createStore(File folder, FileConfiguration configuration) {
+        String type = configuration.getString("link-storage.type", "yaml").toLowerCase();
+        try {
+            switch (type) {
+                case "sqlite":
+                    File file = new File(configuration.getString("link-storage.sqlite.file", "accounts.db"));
+                    return new SqlLinkStore(file.isAbsolute() ? file : new File(folder, file.getPath()),
+                            configuration.getInt("link-storage.sqlite.pool-size", 2),
+                            configuration.getInt("link-storage.sqlite.cache-size", 10000));
+                case "mysql":
+                    return new SqlLinkStore(configuration.getString("link-storage.mysql.url"),
+                            configuration.getString("link-storage.mysql.username"),
+                            configuration.getString("link-storage.mysql.password"),
+                            configuration.getInt("link-storage.mysql.pool-size", 2),
+                            configuration.getInt("link-storage.mysql.cache-size", 10000));
+                case "file":
+                    return new FileLinkStore(folder);
+                default:
+                    if (!type.equals("yaml")) {
+                        logger.warn("Unknown link storage type {}, using the yaml storage", type);
+                    }
+                    return new YamlLinkStore();
+            }
+        } catch (IOException e) {
+            // Falling back to another storage would hide links from the next start and from the other servers
+            throw new IllegalStateException("Could not open the " + type + " link storage", e);
+        }
+    }
 
-        this.uuidMap = new HashMap<>();
-        this.linkMap = configuration.getConfig().getConfigurationSection(this.path)
-                .getValues(false)
-                .entrySet()
-                .stream()
-                .collect(Collectors.toMap(e -> Long.valueOf(e.getKey()), e -> UUID.fromString((String) e.getValue())));
+    /**
+     * Connects to the other servers that use the same database, so their link changes are evicted from the cache
+     */
+    private void share(FileConfiguration configuration) {
+        if (!(this.store instanceof SqlLinkStore)) {
+            logger.warn("Sharing links between servers requires the sqlite or mysql link storage");
+            return;
+        }
+        String secret = configuration.getString("link-storage.shared.secret", "");
+        if (secret.isEmpty()) {
+            logger.warn("Sharing links between servers requires a secret, link changes are not shared");
+            return;
+        }
+
+        LinkCoordinator coordinator = new LinkCoordinator(configuration.getString("link-storage.shared.host", "127.0.0.1"),
+                configuration.getInt("link-storage.shared.port", 25590),
+                configuration.getBoolean("link-storage.shared.coordinator", false),
+                secret, (SqlLinkStore) this.store);
+        ((SqlLinkStore) this.store).setCoordinator(coordinator);
+        coordinator.start();
     }
 
     public static LinkHandler getInstance() {
         return instance == null ? instance = new LinkHandler() : instance;
     }
 
+    /**
+     * @return whether the links have been loaded, which happens once the bot is ready
+     */
+    public static boolean isLoaded() {
+        return instance != null;
+    }
+
+    /**
+     * Calls a link event on the main thread, links are often changed on the Discord threads
+     * @param event Creates the event, only invoked on the main thread
+     */
+    public void callEvent(@NonNull Supplier<? extends Event> event) {
+        if (Bukkit.isPrimaryThread()) {
+            Bukkit.getPluginManager().callEvent(event.get());
+            return;
+        }
+        Bukkit.getScheduler().runTask(MinecraftDiscord.getInstance(), () -> Bukkit.getPluginManager().callEvent(event.get()));
+    }
+
     /**
      * Returns a copy of the linked users
      * @return a copy of all linked users
      */
     public Map<Long, UUID> getLinkMap() {
-        return new HashMap<>(linkMap);
+        Map<Long, UUID> map = new HashMap<>();
+        this.store.forEach((uuid, id) -> map.put(id, uuid));
+        return map;
     }
 
+    /**
+     * Persists all pending changes and closes the link storage
+     */
     public void saveResources() {
-        Map<Long, String> stringMap = this.linkMap.entrySet()
-                .stream()
-                .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().toString()));
-
-        this.configuration.getConfig().set(this.path, stringMap);
-        this.configuration.saveConfig();
+        this.store.close();
     }
 
     public boolean isLinked(@NonNull UUID uuid) {
-        return this.linkMap.containsValue(uuid);
+        return this.store.getId(uuid) != LinkIndex.NONE;
     }
 
     public boolean isLinked(@NonNull IUser user) {
-        return this.linkMap.containsKey(user.getLongID());
+        return this.store.getUuid(user.getLongID()) != null;
     }
 
     public String getUserUUIDString(@NonNull IUser user) {
-        try {
-            return linkMap.get(user.getLongID()).toString();
-        } catch (NullPointerException e) {
-            return user.getName();
-        }
+        UUID uuid = this.store.getUuid(user.getLongID());
+        return uuid == null ? user.getName() : uuid.toString();
     }
 
     public UserPair getLinkedUser(@NonNull UUID uuid) {
-        return this.linkMap.entrySet().stream()
-                .filter(e -> e.getValue().equals(uuid))
-                .map(e -> new UserPair(e.getKey(), e.getValue()))
-                .findFirst().orElse(new UserPair());
+        long id = this.store.getId(uuid);
+        return id == LinkIndex.NONE ? new UserPair() : new UserPair(id, uuid);
     }
 
     public UserPair linkAccount(@NonNull IUser user, @NonNull int code) {
-        if (!this.uuidMap.containsKey(code)) {
+        UUID uuid;
+        synchronized (this.codes) {
+            uuid = this.codes.take(code);
+        }
+        if (uuid == null) {
             return new UserPair();
         }
-        UUID uuid = this.uuidMap.get(code);
-        this.linkMap.put(user.getLongID(), uuid);
-        this.uuidMap.remove(code);
+        this.store.link(user.getLongID(), uuid);
+        this.refreshSession(uuid);
         return new UserPair(user.getLongID(), uuid);
     }
 
+    /**
+     * Returns the pending code of a player, or generates a new one
+     * @param uuid The player that wants to link their account
+     * @return the code, or {@link LinkCodeTable#NONE} if too many codes are outstanding
+     */
     public int generateCode(@NonNull UUID uuid) {
-        String s = uuid.toString();
-
-        if (this.uuidMap.containsValue(uuid)) {
-            return uuidMap.entrySet().stream()
-                    .filter(e -> e.getValue().equals(uuid))
-                    .findFirst().orElseThrow(() -> new NullPointerException("This should never happen: " + s))
-                    .getKey();
-        }
-
-        int x;
-        while (true) {
-            x = this.generateCode();
-            System.out.println("Generated code " + x);
-            if (!this.uuidMap.containsKey(x)) {
-                this.uuidMap.put(x, uuid);
-                return x;
-            }
+        synchronized (this.codes) {
+            return this.codes.generate(uuid);
         }
     }
 
-    private int generateCode() {
-        return 100000 + ((int) (ThreadLocalRandom.current().nextFloat() * 900000.0f));
+    public UserPair unlink(@NonNull UUID uuid) {
+        long id = this.store.unlink(uuid);
+        this.refreshSession(uuid);
+        return id == LinkIndex.NONE ? new UserPair() : new UserPair(id, uuid);
     }
 
-    public UserPair unlink(@NonNull UUID uuid) {
-        UserPair pair = this.getLinkedUser(uuid);
-        if (!pair.isEmpty()) {
-            this.linkMap.remove(pair.getLeft());
-            return pair;
+    public UserPair unlink(@NonNull long id) {
+        UUID uuid = this.store.unlink(id);
+        if (uuid == null) {
+            return new UserPair();
         }
-        return new UserPair();
+        this.refreshSession(uuid);
+        return new UserPair(id, uuid);
     }
 
-    public UserPair unlink(@NonNull long id) {
-        if (!this.linkMap.containsKey(id)) {
-            UUID temp = this.linkMap.get(id);
-            this.linkMap.remove(id);
-            return new UserPair(id, temp);
+    private void refreshSession(UUID uuid) {
+        if (SessionHandler.isLoaded()) {
+            SessionHandler.getInstance().refresh(uuid);
         }
-        return new UserPair();
     }
 }
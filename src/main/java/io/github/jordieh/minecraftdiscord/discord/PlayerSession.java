@@ -0,0 +1,81 @@
+/*
+ *     This file is part of MinecraftDiscord.
+ *
+ *     MinecraftDiscord is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     MinecraftDiscord is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with MinecraftDiscord.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.jordieh.minecraftdiscord.discord;
+
+import io.github.jordieh.minecraftdiscord.common.LinkIndex;
+import lombok.Getter;
+import sx.blah.discord.handle.obj.IRole;
+import sx.blah.discord.handle.obj.IUser;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * The resolved link of an online player, see {@link SessionHandler}
+ */
+public final class PlayerSession {
+
+    private static final long[] NO_ROLES = new long[0];
+
+    @Getter private final UUID uuid;
+    @Getter private final long id; // LinkIndex.NONE when the player is not linked
+    @Getter private final IUser user; // Null when not linked or not known to the bot
+    private final long resolved; // System.nanoTime() of the lookup
+
+    private volatile long[] roles; // Sorted role IDs of the user, shadowed from Discord
+
+    PlayerSession(UUID uuid, long id, IUser user) {
+        this.uuid = uuid;
+        this.id = id;
+        this.user = user;
+        this.resolved = System.nanoTime();
+        this.roles = NO_ROLES;
+    }
+
+    public boolean isLinked() {
+        return this.id != LinkIndex.NONE;
+    }
+
+    /**
+     * @return whether the player is linked to a Discord user that is known to the bot
+     */
+    public boolean isResolved() {
+        return this.user != null;
+    }
+
+    /**
+     * Checks the shadowed roles, without going through the Discord cache
+     * @param role The role to look up
+     * @return true if the Discord user had the role at the last update
+     */
+    public boolean hasRole(IRole role) {
+        return Arrays.binarySearch(this.roles, role.getLongID()) >= 0;
+    }
+
+    /**
+     * @param timeout The maximum age in nanoseconds
+     * @return whether the session was resolved longer ago than the timeout
+     */
+    boolean isExpired(long timeout) {
+        return System.nanoTime() - this.resolved > timeout;
+    }
+
+    void setRoles(long[] roles) {
+        this.roles = roles;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ *     This file is part of MinecraftDiscord.
+ *
+ *     MinecraftDiscord is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     MinecraftDiscord is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with MinecraftDiscord.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.jordieh.minecraftdiscord.discord;
+
+import io.github.jordieh.minecraftdiscord.common.RateLimitRoute;
+import lombok.Getter;
+import lombok.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the Discord rate limit buckets so requests can be delayed before Discord rejects them.
+ * Buckets start out with the default limits of their route and are corrected by response headers and 429 responses.
+ */
+public final class RateLimitHandler {
+
+    private final Logger logger = LoggerFactory.getLogger(RateLimitHandler.class);
+
+    private static RateLimitHandler instance;
+
+    private final Map<String, Bucket> buckets;
+    @Getter private final Bucket global;
+
+    private RateLimitHandler() {
+        logger.debug("Constructing RateLimitHandler");
+        this.buckets = new ConcurrentHashMap<>();
+        this.global = new Bucket(RateLimitRoute.GLOBAL, 0);
+    }
+
+    public static RateLimitHandler getInstance() {
+        return instance == null ? instance = new RateLimitHandler() : instance;
+    }
+
+    /**
+     * Returns the bucket of a route
+     * @param route The rate limited route
+     * @param major The major parameter of the route (channel, guild or webhook ID)
+     * @return the shared bucket for the route and major parameter
+     */
+    public Bucket getBucket(@NonNull RateLimitRoute route, long major) {
+        if (route == RateLimitRoute.GLOBAL) {
+            return this.global;
+        }
+        return this.buckets.computeIfAbsent(route.name() + ':' + major, k -> new Bucket(route, major));
+    }
+
+    /**
+     * Takes a request from the global bucket and the specified bucket when both have requests remaining
+     * @param bucket The bucket of the request, null for requests that are only limited globally
+     * @return 0 if the request may be executed, otherwise the amount of milliseconds to wait before trying again
+     */
+    public long acquire(Bucket bucket) {
+        long now = System.currentTimeMillis();
+        synchronized (this.global) {
+            long wait = this.global.delay(now);
+            if (wait > 0) {
+                return wait;
+            }
+
+            if (bucket != null && bucket != this.global) {
+                synchronized (bucket) {
+                    wait = bucket.delay(now);
+                    if (wait > 0) {
+                        return wait;
+                    }
+                    bucket.remaining--;
+                }
+            }
+
+            this.global.remaining--;
+            return 0;
+        }
+    }
+
+    /**
+     * Updates a bucket with the rate limit headers of a Discord response
+     * @param bucket The bucket of the request
+     * @param headers The response headers
+     */
+    public void update(@NonNull Bucket bucket, @NonNull Map<String, List<String>> headers) {
+        String limit = header(headers, "X-RateLimit-Limit");
+        String remaining = header(headers, "X-RateLimit-Remaining");
+        String resetAfter = header(headers, "X-RateLimit-Reset-After");
+        String reset = header(headers, "X-RateLimit-Reset");
+
+        if (remaining == null || (resetAfter == null && reset == null)) {
+            return;
+        }
+
+        try {
+            long now = System.currentTimeMillis();
+            long resetTime = resetAfter != null
+                    ? now + (long) Math.ceil(Double.parseDouble(resetAfter) * 1000.0d)
+                    : (long) Math.ceil(Double.parseDouble(reset) * 1000.0d);
+
+            synchronized (bucket) {
+                if (limit != null) {
+                    bucket.limit = Integer.parseInt(limit);
+                }
+                bucket.remaining = Integer.parseInt(remaining);
+                bucket.reset = resetTime;
+            }
+        } catch (NumberFormatException e) {
+            logger.debug("Received invalid rate limit headers for bucket {}", bucket.getName(), e);
+        }
+    }
+
+    /**
+     * Blocks a bucket after Discord rejected a request with a 429 response
+     * @param bucket The bucket of the rejected request, null if unknown
+     * @param retryAfter The amount of milliseconds Discord asked us to wait
+     * @param global Whether the rate limit applies to all requests
+     */
+    public void limited(Bucket bucket, long retryAfter, boolean global) {
+        Bucket target = global || bucket == null ? this.global : bucket;
+        logger.debug("Bucket {} has been rate limited for {}ms", target.getName(), retryAfter);
+        synchronized (target) {
+            target.remaining = 0;
+            target.reset = Math.max(target.reset, System.currentTimeMillis() + retryAfter);
+        }
+    }
+
+    private static String header(Map<String, List<String>> headers, String name) {
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            if (name.equalsIgnoreCase(entry.getKey()) && entry.getValue() != null && !entry.getValue().isEmpty()) {
+                return entry.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    public static final class Bucket {
+
+        @Getter private final String name;
+        private final RateLimitRoute route;
+        private int limit;
+        private int remaining;
+        private long reset; // Epoch milliseconds
+
+        private Bucket(RateLimitRoute route, long major) {
+            this.name = route == RateLimitRoute.GLOBAL ? route.name() : route.name() + ':' + major;
+            this.route = route;
+            this.limit = route.limit;
+            this.remaining = route.limit;
+        }
+
+        /**
+         * Returns the amount of milliseconds until this bucket allows another request, starting a new
+         * window with the last known limit once the previous window has passed
+         */
+        private long delay(long now) {
+            if (now >= this.reset) {
+                this.remaining = this.limit;
+                this.reset = now + this.route.window;
+            }
+            return this.remaining > 0 ? 0 : this.reset - now;
+        }
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ *     This file is part of MinecraftDiscord.
+ *
+ *     MinecraftDiscord is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     MinecraftDiscord is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with MinecraftDiscord.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.jordieh.minecraftdiscord.discord;
+
+import io.github.jordieh.minecraftdiscord.MinecraftDiscord;
+import io.github.jordieh.minecraftdiscord.common.OverflowPolicy;
+import io.github.jordieh.minecraftdiscord.common.RequestPriority;
+import io.github.jordieh.minecraftdiscord.discord.RateLimitHandler.Bucket;
+import lombok.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sx.blah.discord.util.RateLimitException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes outgoing Discord requests on a small pool of worker threads.
+ * Requests are grouped in lanes (a channel or a user), every lane is executed in FIFO order and
+ * lanes are picked by the priority of their oldest request. Requests are paced by their rate limit bucket
+ * and submitting never blocks the calling thread.
+ */
+public final class RequestScheduler {
+
+    private final Logger logger = LoggerFactory.getLogger(RequestScheduler.class);
+
+    private static RequestScheduler instance;
+
+    private static final RequestPriority[] PRIORITIES = RequestPriority.values();
+
+    private final Object lock = new Object();
+    private final Map<Long, Lane> lanes;
+    private final List<Deque<Lane>> ready;
+    private final int[] queued;
+    private final long[] dropped;
+    private long sequence; // Submitted requests, guarded by the lock
+
+    private final List<Thread> workers;
+    private final ScheduledExecutorService timer;
+
+    private boolean running;
+
+    private RequestScheduler() {
+        logger.debug("Constructing RequestScheduler");
+        int threads = Math.max(1, MinecraftDiscord.getInstance().getConfig().getInt("request-scheduler.threads", 4));
+
+        this.lanes = new HashMap<>();
+        this.ready = new ArrayList<>(PRIORITIES.length);
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            this.ready.add(new ArrayDeque<>());
+        }
+        this.queued = new int[PRIORITIES.length];
+        this.dropped = new long[PRIORITIES.length];
+
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "RequestScheduler-Timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.running = true;
+        this.workers = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(this::work, "RequestScheduler-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            this.workers.add(thread);
+        }
+        logger.debug("Started {} request worker threads", threads);
+    }
+
+    public static RequestScheduler getInstance() {
+        return instance == null ? instance = new RequestScheduler() : instance;
+    }
+
+    /**
+     * Queues a request without blocking the calling thread
+     * @param priority The priority class of the request
+     * @param key The lane of the request, requests with the same key are executed in submission order
+     * @param runnable The request
+     * @return true if the request has been queued, false if it has been dropped
+     */
+    public boolean submit(@NonNull RequestPriority priority, long key, @NonNull Runnable runnable) {
+        return this.submit(priority, key, null, runnable);
+    }
+
+    /**
+     * Queues a request without blocking the calling thread
+     * @param priority The priority class of the request
+     * @param key The lane of the request, requests with the same key are executed in submission order
+     * @param bucket The rate limit bucket of the request, null if the request is only limited globally
+     * @param runnable The request
+     * @return true if the request has been queued, false if it has been dropped
+     */
+    public boolean submit(@NonNull RequestPriority priority, long key, Bucket bucket, @NonNull Runnable runnable) {
+        Request request = new Request(priority, bucket, runnable);
+        int index = priority.ordinal();
+
+        synchronized (this.lock) {
+            if (!this.running) {
+                return false;
+            }
+
+            Lane lane = this.lanes.get(key);
+            request.sequence = ++this.sequence;
+
+            if (this.queued[index] >= priority.capacity) {
+                if (priority.policy != OverflowPolicy.DISCARD_OLDEST || !this.discardOldest(priority)) {
+                    this.drop(priority);
+                    return false;
+                }
+                this.drop(priority);
+                this.queued[index]--;
+            }
+
+            if (lane == null) {
+                lane = new Lane(key);
+                this.lanes.put(key, lane);
+            }
+
+            lane.requests.add(request);
+            this.queued[index]++;
+
+            if (!lane.busy) {
+                lane.busy = true;
+                this.markReady(lane);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the amount of queued requests of the specified priority class
+     */
+    public int getQueued(@NonNull RequestPriority priority) {
+        synchronized (this.lock) {
+            return this.queued[priority.ordinal()];
+        }
+    }
+
+    /**
+     * Waits for queued requests to finish and stops all worker threads
+     * @param timeout The maximum time in milliseconds to wait for queued requests
+     */
+    public void shutdown(long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (this.lock) {
+            long remaining;
+            while (this.total() > 0 && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    this.lock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+
+            if (this.total() > 0) {
+                logger.warn("Discarding {} Discord requests that could not be sent in time", this.total());
+            }
+
+            this.running = false;
+            this.lock.notifyAll();
+        }
+        this.timer.shutdownNow();
+        this.workers.forEach(Thread::interrupt);
+    }
+
+    private void work() {
+        while (true) {
+            Lane lane;
+            Request request;
+            synchronized (this.lock) {
+                while ((lane = this.nextLane()) == null) {
+                    if (!this.running) {
+                        return;
+                    }
+                    try {
+                        this.lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                request = lane.requests.poll();
+                if (request == null) { // All requests of this lane have been discarded in the meantime
+                    this.release(lane);
+                    continue;
+                }
+            }
+
+            long delay = RateLimitHandler.getInstance().acquire(request.bucket);
+            if (delay == 0) {
+                delay = this.execute(request);
+            }
+
+            synchronized (this.lock) {
+                if (delay > 0) {
+                    lane.requests.addFirst(request); // Keep the lane in order, retry the same request
+                    Lane retry = lane;
+                    this.timer.schedule(() -> {
+                        synchronized (this.lock) {
+                            this.markReady(retry);
+                        }
+                    }, delay, TimeUnit.MILLISECONDS);
+                } else {
+                    this.queued[request.priority.ordinal()]--;
+                    this.release(lane);
+                    this.lock.notifyAll(); // Wakes up RequestScheduler#shutdown
+                }
+            }
+        }
+    }
+
+    /**
+     * Executes a request
+     * @return the amount of milliseconds to wait before retrying the request, 0 when it should not be retried
+     */
+    private long execute(Request request) {
+        try {
+            request.runnable.run();
+        } catch (RateLimitException e) {
+            logger.debug("Hit a {} rate limit, retrying in {}ms", e.isGlobal() ? "global" : e.getMethod(), e.getRetryDelay());
+            long delay = Math.max(1, e.getRetryDelay());
+            RateLimitHandler.getInstance().limited(request.bucket, delay, e.isGlobal());
+            return delay;
+        } catch (RuntimeException e) {
+            logger.warn("Unexpected error while executing a {} request", request.priority.name().toLowerCase(), e);
+        }
+        return 0;
+    }
+
+    private Lane nextLane() {
+        for (Deque<Lane> deque : this.ready) {
+            Lane lane = deque.poll();
+            if (lane != null) {
+                return lane;
+            }
+        }
+        return null;
+    }
+
+    private void markReady(Lane lane) {
+        Request head = lane.requests.peek();
+        if (head == null) {
+            this.release(lane);
+            return;
+        }
+        this.ready.get(head.priority.ordinal()).add(lane);
+        this.lock.notifyAll();
+    }
+
+    private void release(Lane lane) {
+        if (lane.requests.isEmpty()) {
+            lane.busy = false;
+            this.lanes.remove(lane.key);
+        } else {
+            this.markReady(lane);
+        }
+    }
+
+    /**
+     * Removes the oldest queued request of the priority class, from whichever lane it is in
+     * @return false if no request of the priority class is waiting
+     */
+    private boolean discardOldest(RequestPriority priority) {
+        Lane oldest = null;
+        Request discarded = null;
+        for (Lane lane : this.lanes.values()) {
+            Request request = lane.oldest(priority);
+            if (request != null && (discarded == null || request.sequence < discarded.sequence)) {
+                oldest = lane;
+                discarded = request;
+            }
+        }
+        if (oldest == null) {
+            return false;
+        }
+        oldest.requests.remove(discarded); // An empty lane is released by the worker that picks it up
+        return true;
+    }
+
+    private void drop(RequestPriority priority) {
+        long count = ++this.dropped[priority.ordinal()];
+        if (count % 100 == 1) {
+            logger.warn("The {} request queue is full, dropped {} requests so far", priority.name().toLowerCase(), count);
+        }
+    }
+
+    private int total() {
+        int total = 0;
+        for (int i : this.queued) {
+            total += i;
+        }
+        return total;
+    }
+
+    private static final class Lane {
+
+        private final long key;
+        private final Deque<Request> requests = new ArrayDeque<>();
+        private boolean busy; // True while the lane is ready, executing or waiting for a retry
+
+        private Lane(long key) {
+            this.key = key;
+        }
+
+        private Request oldest(RequestPriority priority) {
+            for (Request request : this.requests) { // Requests of a lane are in submission order
+                if (request.priority == priority) {
+                    return request;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class Request {
+
+        private final RequestPriority priority;
+        private final Bucket bucket;
+        private final Runnable runnable;
+        private long sequence; // Submission order, assigned while holding the lock
+
+        private Request(RequestPriority priority, Bucket bucket, Runnable runnable) {
+            this.priority = priority;
+            this.bucket = bucket;
+            this.runnable = runnable;
+        }
+    }
+}
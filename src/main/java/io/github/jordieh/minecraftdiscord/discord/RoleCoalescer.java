@@ -0,0 +1,107 @@
+/*
+ *     This file is part of MinecraftDiscord.
+ *
+ *     MinecraftDiscord is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     MinecraftDiscord is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with MinecraftDiscord.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.jordieh.minecraftdiscord.discord;
+
+import io.github.jordieh.minecraftdiscord.configuration.ConfigurationHandler;
+import lombok.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sx.blah.discord.handle.obj.IRole;
+import sx.blah.discord.handle.obj.IUser;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the role changes of a user for a short time before applying them with a single request.
+ * Only the last requested state of every role is kept, so a role that is given and removed again
+ * (a player that joins, vanishes and reappears) only causes a request if the user did not already have that state.
+ */
+public final class RoleCoalescer {
+
+    private final Logger logger = LoggerFactory.getLogger(RoleCoalescer.class);
+
+    private static RoleCoalescer instance;
+
+    private final Map<Long, Member> pending; // User ID -> Pending changes
+    private final ScheduledExecutorService executor;
+
+    private RoleCoalescer() {
+        logger.debug("Constructing RoleCoalescer");
+        this.pending = new ConcurrentHashMap<>();
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "RoleCoalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static RoleCoalescer getInstance() {
+        return instance == null ? instance = new RoleCoalescer() : instance;
+    }
+
+    /**
+     * Requests a role change that is applied once the coalescing delay of the user has passed
+     * @param role The role to give or remove
+     * @param user The user to change
+     * @param granted Whether the user should have the role
+     */
+    public void change(@NonNull IRole role, @NonNull IUser user, boolean granted) {
+        long delay = ConfigurationHandler.getInstance().getSnapshot().getRoleCoalescingDelay();
+        this.pending.compute(user.getLongID(), (id, member) -> {
+            if (member == null) { // The first change since the last flush schedules the next one
+                member = new Member(user);
+                this.executor.schedule(() -> this.flush(id), delay, TimeUnit.MILLISECONDS);
+            }
+            member.roles.put(role, granted);
+            return member;
+        });
+    }
+
+    /**
+     * Applies all pending changes and stops the flushing thread
+     */
+    public void shutdown() {
+        this.pending.keySet().forEach(this::flush);
+        this.executor.shutdown();
+    }
+
+    private void flush(long id) {
+        Member member = this.pending.remove(id); // Later changes start a new window
+        if (member == null) {
+            return;
+        }
+
+        logger.trace("Flushing {} role changes of user {}", member.roles.size(), id);
+        ClientHandler.getInstance().editRoles(member.user, member.roles);
+    }
+
+    private static final class Member {
+
+        private final IUser user;
+        private final Map<IRole, Boolean> roles = new LinkedHashMap<>(); // Role -> Whether the user should have it
+
+        private Member(IUser user) {
+            this.user = user;
+        }
+    }
+}
@@ -18,9 +18,11 @@
 package io.github.jordieh.minecraftdiscord.discord;
 
 import io.github.jordieh.minecraftdiscord.MinecraftDiscord;
-import io.github.jordieh.minecraftdiscord.common.UserPair;
+import io.github.jordieh.minecraftdiscord.configuration.ConfigurationHandler;
+import io.github.jordieh.minecraftdiscord.configuration.ConfigurationSnapshot;
+import io.github.jordieh.minecraftdiscord.dependencies.DependencyHandler;
+import io.github.jordieh.minecraftdiscord.storage.LinkStore;
 import org.bukkit.Bukkit;
-import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.entity.Player;
 import org.bukkit.permissions.Permission;
 import org.bukkit.permissions.PermissionDefault;
@@ -29,11 +31,30 @@ import org.slf4j.LoggerFactory;
 import sx.blah.discord.handle.obj.IRole;
 import sx.blah.discord.handle.obj.IUser;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 public class RoleHandler {
@@ -42,41 +63,68 @@ public class RoleHandler {
 
     private static RoleHandler instance;
 
-    private Map<IRole, Permission> roles; // Permission object to make sure operators don't get all roles
+    private static final long SAVE_INTERVAL = 1200L; // Ticks
+
+    private volatile Map<IRole, Permission> roles; // Permission object to make sure operators don't get all roles
+    private volatile IRole connectionRole; // Null if the configured role does not exist
     private final String basePermission;
+    private int task = -1;
 
-    private RoleHandler() {
-        FileConfiguration configuration = MinecraftDiscord.getInstance().getConfig();
+    private final File connectedFile;
+    private final Set<Long> connected; // Users that have been given the connection role
+    private volatile boolean dirty;
 
+    private RoleHandler() {
         this.basePermission = "minecraftdiscord.sync.";
-        this.roles = configuration.getLongList("role-synchronization.synchronizable-roles")
+        this.connectedFile = new File(MinecraftDiscord.getInstance().getDataFolder(), "connection-role.dat");
+        this.connected = this.loadConnected();
+        this.reload();
+
+        Bukkit.getScheduler().runTaskTimerAsynchronously(MinecraftDiscord.getInstance(), this::saveConnected, SAVE_INTERVAL, SAVE_INTERVAL);
+    }
+
+    public static RoleHandler getInstance() {
+        return instance == null ? instance = new RoleHandler() : instance;
+    }
+
+    /**
+     * Resolves the connection role and synchronizable roles of the current configuration snapshot and (re)schedules
+     * the synchronization task
+     */
+    public void reload() {
+        ConfigurationSnapshot configuration = ConfigurationHandler.getInstance().getSnapshot();
+
+        this.connectionRole = ClientHandler.getInstance().getClient().getRoleByID(configuration.getConnectionRole());
+
+        this.roles = configuration.getSynchronizableRoles()
                 .stream()
                 .map(ClientHandler.getInstance().getClient()::getRoleByID)
                 .filter(Objects::nonNull)
+                .distinct()
                 .collect(Collectors.toMap(r -> r, r -> new Permission(this.basePermission + r.getLongID(), PermissionDefault.FALSE)));
 
-        if (!configuration.getBoolean("connection-role.enabled") && this.roles.isEmpty()) {
+        if (this.task != -1) {
+            Bukkit.getScheduler().cancelTask(this.task);
+            this.task = -1;
+        }
+
+        if (!configuration.isConnectionRoleEnabled() && this.roles.isEmpty()) {
             return;
         }
 
-        long delay = configuration.getLong("role-synchronization.synchronization-time", 300); // Default to 300 to prevent everything that could go wrong
-        delay = delay * 20; // 20 Minecraft game ticks are equal to 1 second
+        long delay = configuration.getSynchronizationTime() * 20; // 20 Minecraft game ticks are equal to 1 second
 
-        MinecraftDiscord.getInstance().getServer().getScheduler()
-                .scheduleSyncRepeatingTask(MinecraftDiscord.getInstance(), new RoleRunnable(), delay, delay);
-    }
-
-    public static RoleHandler getInstance() {
-        return instance == null ? instance = new RoleHandler() : instance;
+        // Runs every tick, but only starts a new synchronization once per synchronization time
+        this.task = MinecraftDiscord.getInstance().getServer().getScheduler()
+                .scheduleSyncRepeatingTask(MinecraftDiscord.getInstance(), new RoleRunnable(configuration), delay, 1L);
     }
 
     public boolean useConnectionRole() {
-        return MinecraftDiscord.getInstance().getConfig().getBoolean("connection-role.enabled");
+        return ConfigurationHandler.getInstance().getSnapshot().isConnectionRoleEnabled();
     }
 
     public Optional<IRole> getConnectionRole() {
-        long id = MinecraftDiscord.getInstance().getConfig().getLong("connection-role.unique");
-        return Optional.ofNullable(ClientHandler.getInstance().getClient().getRoleByID(id));
+        return Optional.ofNullable(this.connectionRole);
     }
 
     /**
@@ -92,25 +140,24 @@ public class RoleHandler {
             return false;
         }
 
-        Optional<IRole> optional = this.getConnectionRole();
-        if (!optional.isPresent()) {
+        IRole role = this.connectionRole;
+        if (role == null) {
             return false;
         }
 
-        UserPair pair = LinkHandler.getInstance().getLinkedUser(uuid);
-
-        if (pair.isEmpty()) {
+        PlayerSession session = SessionHandler.getInstance().resolve(uuid);
+        if (!session.isLinked()) {
             return false;
         }
 
-        Optional<IUser> user = pair.getUser();
-
-        if (!user.isPresent()) {
-            LinkHandler.getInstance().unlink(pair.getLeft());
+        if (!session.isResolved()) {
+            LinkHandler.getInstance().unlink(session.getId());
             return false;
         }
 
-        ClientHandler.getInstance().giveRole(optional.get(), user.get());
+        ClientHandler.getInstance().giveRole(role, session.getUser());
+        this.connected.add(session.getId());
+        this.dirty = true;
         return true;
     }
 
@@ -126,121 +173,266 @@ public class RoleHandler {
      * @return true if the role has been given, in all other cases false
      */
     public boolean removeConnectionRole(UUID uuid) {
-        Optional<IRole> optional = this.getConnectionRole();
-        if (!optional.isPresent()) {
+        IRole role = this.connectionRole;
+        if (role == null) {
             return false;
         }
 
-        UserPair pair = LinkHandler.getInstance().getLinkedUser(uuid);
-
-        if (pair.isEmpty()) {
+        PlayerSession session = SessionHandler.getInstance().resolve(uuid);
+        if (!session.isLinked()) {
             return false;
         }
 
-        Optional<IUser> user = pair.getUser();
-
-        if (!user.isPresent()) {
-            LinkHandler.getInstance().unlink(pair.getLeft());
+        if (!session.isResolved()) {
+            LinkHandler.getInstance().unlink(session.getId());
             return false;
         }
 
-        ClientHandler.getInstance().removeRole(optional.get(), user.get());
+        ClientHandler.getInstance().removeRole(role, session.getUser());
+        this.connected.remove(session.getId());
+        this.dirty = true;
         return true;
     }
 
     /**
-     * Gives the connection role specified in the config.yml to all online users when the following conditions are met:
-     *  - The connection-role.enabled option is enabled in the config
-     *  - The specified role in the config is valid
-     * @return true if the roles have been distributed, false otherwise
+     * Reconciles the connection role with the online players in the background, see {@link #reconcile(IRole, Collection, boolean)}.
+     * Has to be called on the main thread, players can only be listed there.
      */
-    public boolean distributeConnectionRole() {
-        if (!this.useConnectionRole()) {
-            return false;
+    public void reconcileConnectionRole() {
+        IRole role = this.connectionRole;
+        if (role == null || !this.useConnectionRole()) {
+            return;
         }
 
-        Optional<IRole> optional = this.getConnectionRole();
-        if (!optional.isPresent()) {
-            return false;
+        List<UUID> online = Bukkit.getOnlinePlayers().stream()
+                .filter(p -> !DependencyHandler.getInstance().isVanished(p))
+                .map(Player::getUniqueId)
+                .collect(Collectors.toList());
+        Bukkit.getScheduler().runTaskAsynchronously(MinecraftDiscord.getInstance(), () -> this.reconcile(role, online, true));
+    }
+
+    /**
+     * Removes the connection role from every linked user that has it, used when the plugin is disabled
+     */
+    public void clearConnectionRole() {
+        IRole role = this.connectionRole;
+        if (role != null && this.useConnectionRole()) {
+            this.reconcile(role, Collections.emptyList(), false);
         }
+    }
 
-        // TODO Switch this functionality around to use Bukkit#getOnlinePlayers();
-        LinkHandler.getInstance().getLinkMap().forEach((id, uuid) -> {
-            IUser user = ClientHandler.getInstance().getClient().getUserByID(id);
+    /**
+     * Gives the connection role to the linked online players that do not have it, and removes it from the other linked users.
+     * The current members are taken from Discord together with the users the role was given to before the last shutdown,
+     * so only the differences are requested, no matter how many accounts are linked.
+     * Members that are not linked keep the role, it might have been given to them by hand.
+     * @param role The connection role
+     * @param online The players that should have the role
+     * @param recheck Whether the online players were captured earlier, the changes are then checked again on the main thread
+     */
+    private void reconcile(IRole role, Collection<UUID> online, boolean recheck) {
+        LinkStore store = LinkHandler.getInstance().getStore();
+        Map<Long, UUID> desired = new HashMap<>();
+        store.getIds(online).forEach((uuid, id) -> desired.put(id, uuid));
+        Set<Long> members = role.getGuild().getUsersByRole(role).stream().map(IUser::getLongID).collect(Collectors.toSet());
+
+        Set<Long> candidates = new HashSet<>(this.connected);
+        candidates.addAll(members);
+        candidates.removeAll(desired.keySet());
+        Map<Long, UUID> stale = store.getUuids(candidates);
+        this.connected.stream().filter(id -> candidates.contains(id) && !stale.containsKey(id))
+                .forEach(id -> stale.put(id, null)); // Given the role by the plugin, but unlinked since
+
+        if (!recheck) {
+            this.apply(role, members, desired, stale, false);
+            return;
+        }
+        Bukkit.getScheduler().runTask(MinecraftDiscord.getInstance(), () -> this.apply(role, members, desired, stale, true));
+    }
+
+    /**
+     * @param recheck Whether to skip players that quit, joined or (re)appeared since they were captured
+     */
+    private void apply(IRole role, Set<Long> members, Map<Long, UUID> desired, Map<Long, UUID> stale, boolean recheck) {
+        int given = 0;
+        int removed = 0;
+        for (Map.Entry<Long, UUID> entry : desired.entrySet()) {
+            if (recheck && Bukkit.getPlayer(entry.getValue()) == null) {
+                continue; // Quit since, the role has been removed by then
+            }
+            IUser user = ClientHandler.getInstance().getClient().getUserByID(entry.getKey());
             if (user == null) {
-                LinkHandler.getInstance().unlink(id);
-                return;
+                continue;
             }
-
-            if (Bukkit.getPlayer(uuid) != null) { // Check if the Player is online
-                ClientHandler.getInstance().giveRole(optional.get(), user);
+            this.connected.add(entry.getKey());
+            if (!members.contains(entry.getKey())) {
+                ClientHandler.getInstance().giveRole(role, user);
+                given++;
             }
+        }
+        for (Map.Entry<Long, UUID> entry : stale.entrySet()) {
+            Player player = entry.getValue() == null ? null : Bukkit.getPlayer(entry.getValue());
+            if (recheck && player != null && !DependencyHandler.getInstance().isVanished(player)) {
+                continue; // Joined since, the role has been given by then
+            }
+            this.connected.remove(entry.getKey());
+            IUser user = ClientHandler.getInstance().getClient().getUserByID(entry.getKey());
+            if (user != null) { // Users that are not cached have left the guild
+                ClientHandler.getInstance().removeRole(role, user);
+                removed++;
+            }
+        }
 
-        });
-
-        return true;
+        logger.debug("Reconciled the connection role, giving it to {} and removing it from {} users", given, removed);
+        this.dirty = true;
+        if (recheck) {
+            Bukkit.getScheduler().runTaskAsynchronously(MinecraftDiscord.getInstance(), this::saveConnected);
+        } else {
+            this.saveConnected();
+        }
     }
 
     /**
-     * Clears the connection role only when the role specified in the config.yml is valid
-     * @param checkOnline Check if the connected player is online before removing the role
-     * @return true when an attempt to remove the roles has succeeded, false otherwise
+     * Loads the users the connection role was given to when the server stopped
      */
-    public boolean clearConnectionUsers(boolean checkOnline) {
-        Optional<IRole> optional = this.getConnectionRole();
-        if (!optional.isPresent()) {
-            return false;
+    private Set<Long> loadConnected() {
+        Set<Long> connected = ConcurrentHashMap.newKeySet();
+        if (!this.connectedFile.exists()) {
+            return connected;
         }
-
-        // TODO Switch this functionality around to use Bukkit#getOnlinePlayers();
-        LinkHandler.getInstance().getLinkMap().forEach((id, uuid) -> {
-            IUser user = ClientHandler.getInstance().getClient().getUserByID(id);
-            if (user == null) {
-                LinkHandler.getInstance().unlink(id);
-                return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.connectedFile)))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                connected.add(in.readLong());
             }
+        } catch (IOException e) {
+            logger.warn("Could not read {}, the connection role is only reconciled with Discord", this.connectedFile.getName(), e);
+        }
+        return connected;
+    }
 
-            if (!checkOnline || Bukkit.getPlayer(uuid) != null) {
-                ClientHandler.getInstance().removeRole(optional.get(), user);
+    /**
+     * Persists the users that have the connection role, so a missed cleanup can be corrected on the next start
+     */
+    public synchronized void saveConnected() {
+        if (!this.dirty) {
+            return;
+        }
+        this.dirty = false;
+
+        List<Long> connected = new ArrayList<>(this.connected);
+        File temporary = new File(this.connectedFile.getParentFile(), this.connectedFile.getName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+                out.writeInt(connected.size());
+                for (long id : connected) {
+                    out.writeLong(id);
+                }
             }
+            Files.move(temporary.toPath(), this.connectedFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Could not save {}", this.connectedFile.getName(), e);
+        }
+    }
 
-        });
-
-        return true;
+    /**
+     * Compares the roles the players should have with the roles their Discord users have, and requests only the differences
+     * @param roles The synchronizable roles, in the order of the permission bits
+     * @param permissions The synchronizable roles each online player has the permission for
+     */
+    private void synchronize(List<IRole> roles, Map<UUID, BitSet> permissions) {
+        int linked = 0;
+        int given = 0;
+        int removed = 0;
+        for (Map.Entry<UUID, BitSet> entry : permissions.entrySet()) {
+            PlayerSession session = SessionHandler.getInstance().getSession(entry.getKey());
+            if (session == null || !session.isResolved()) {
+                continue; // Quit, not linked, or not known to the bot since the user might have left the guild
+            }
+            linked++;
+
+            IUser user = session.getUser();
+            BitSet permitted = entry.getValue();
+            for (int i = 0; i < roles.size(); i++) {
+                IRole role = roles.get(i);
+                if (permitted.get(i) == session.hasRole(role)) {
+                    continue;
+                }
+                if (permitted.get(i)) {
+                    ClientHandler.getInstance().giveRole(role, user);
+                    given++;
+                } else {
+                    ClientHandler.getInstance().removeRole(role, user);
+                    removed++;
+                }
+            }
+        }
+        logger.debug("Synchronized the roles of {} linked players, giving {} and removing {} roles", linked, given, removed);
     }
 
+    /**
+     * Captures which synchronizable roles the online players are permitted to have, permissions can only be checked
+     * on the main thread, everything else happens asynchronously in {@link #synchronize(List, Map)}.
+     * A cursor moves over the players that were online when the synchronization started, every tick it captures
+     * players until the tick budget is used up, so the synchronization never causes a lag spike.
+     */
     private final class RoleRunnable implements Runnable {
+
+        private final long interval; // Nanoseconds
+        private final long budget; // Nanoseconds per tick
+
+        private List<IRole> order = Collections.emptyList();
+        private Permission[] permissions;
+        private List<UUID> players = Collections.emptyList();
+        private int cursor;
+        private long next; // Start of the next synchronization
+
+        private RoleRunnable(ConfigurationSnapshot configuration) {
+            this.interval = TimeUnit.SECONDS.toNanos(configuration.getSynchronizationTime());
+            this.budget = configuration.getSynchronizationBudget();
+            this.next = System.nanoTime();
+        }
+
         @Override
         public void run() {
-            Collection<? extends Player> players = Bukkit.getOnlinePlayers()
-                    .stream()
-                    .filter(p -> LinkHandler.getInstance().isLinked( p.getUniqueId()))
-                    .collect(Collectors.toList());
-
-            for (Player player : players) {
-                UserPair pair = LinkHandler.getInstance().getLinkedUser(player.getUniqueId());
-                if (pair.isEmpty()) {
+            long start = System.nanoTime();
+            if (this.cursor >= this.players.size()) {
+                if (start - this.next < 0) {
                     return;
                 }
-
-                Optional<IUser> user = pair.getUser();
-                if (!user.isPresent()) {
+                Map<IRole, Permission> roles = RoleHandler.this.roles;
+                if (roles.isEmpty()) {
                     return;
                 }
+                this.order = new ArrayList<>(roles.keySet());
+                this.permissions = this.order.stream().map(roles::get).toArray(Permission[]::new);
+                this.players = Bukkit.getOnlinePlayers().stream().map(Player::getUniqueId).collect(Collectors.toList());
+                this.cursor = 0;
+                this.next = start + this.interval;
+                if (this.players.isEmpty()) {
+                    return; // Nobody to synchronize until the next interval
+                }
+            }
 
-                roles.forEach((role, permission) -> {
-                    if (player.hasPermission(permission)) {
-                        if (!user.get().hasRole(role)) {
-                            ClientHandler.getInstance().giveRole(role, user.get());
-                        }
-                    } else {
-                        if (user.get().hasRole(role)) {
-                            ClientHandler.getInstance().removeRole(role, user.get());
-                        }
+            Map<UUID, BitSet> snapshot = new HashMap<>();
+            do { // At least one player per tick, so a synchronization always finishes
+                Player player = Bukkit.getPlayer(this.players.get(this.cursor++));
+                if (player == null) {
+                    continue; // Left since the synchronization started
+                }
+                BitSet permitted = new BitSet(this.permissions.length);
+                for (int i = 0; i < this.permissions.length; i++) {
+                    if (player.hasPermission(this.permissions[i])) {
+                        permitted.set(i);
                     }
-                });
-            }
+                }
+                snapshot.put(player.getUniqueId(), permitted);
+            } while (this.cursor < this.players.size() && System.nanoTime() - start < this.budget);
 
+            if (!snapshot.isEmpty()) {
+                List<IRole> order = this.order;
+                Bukkit.getScheduler().runTaskAsynchronously(MinecraftDiscord.getInstance(), () -> synchronize(order, snapshot));
+            }
         }
     }
 }
@@ -0,0 +1,220 @@
+/*
+ *     This file is part of MinecraftDiscord.
+ *
+ *     MinecraftDiscord is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     MinecraftDiscord is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with MinecraftDiscord.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.jordieh.minecraftdiscord.discord;
+
+import io.github.jordieh.minecraftdiscord.MinecraftDiscord;
+import io.github.jordieh.minecraftdiscord.common.LinkIndex;
+import lombok.NonNull;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sx.blah.discord.handle.obj.IGuild;
+import sx.blah.discord.handle.obj.IRole;
+import sx.blah.discord.handle.obj.IUser;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the resolved link, Discord user and roles of every online player, so they are looked up once per login
+ * instead of every time a player chats or their roles are synchronized.
+ * Sessions are prefetched while the player logs in asynchronously, so joining does no lookups on the main thread.
+ */
+public final class SessionHandler {
+
+    private final Logger logger = LoggerFactory.getLogger(SessionHandler.class);
+
+    private static volatile SessionHandler instance;
+
+    private static final long PREFETCH_TIMEOUT = TimeUnit.SECONDS.toNanos(30); // Logins that take longer are resolved again
+
+    private final Map<UUID, PlayerSession> sessions = new ConcurrentHashMap<>();
+    private final Map<UUID, PlayerSession> prefetched = new ConcurrentHashMap<>(); // Players that are logging in
+    private final Map<Long, PlayerSession> users = new ConcurrentHashMap<>(); // Resolved sessions by Discord user ID
+
+    private SessionHandler() {
+        logger.debug("Constructing SessionHandler");
+    }
+
+    public static SessionHandler getInstance() {
+        return instance == null ? instance = new SessionHandler() : instance;
+    }
+
+    /**
+     * @return whether the sessions are being kept, which happens once the links have been loaded
+     */
+    public static boolean isLoaded() {
+        return instance != null;
+    }
+
+    /**
+     * Opens the sessions of the players that joined before the bot was ready, has to be called on the main thread
+     * after the join listener has been registered, so no player is missed
+     */
+    public void openOnline() {
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            if (!this.sessions.containsKey(player.getUniqueId())) {
+                this.open(player.getUniqueId());
+            }
+        }
+    }
+
+    /**
+     * Resolves the session of a player that is logging in, has to be called asynchronously
+     * @param uuid The player that is logging in
+     */
+    public void prefetch(@NonNull UUID uuid) {
+        this.prefetched.values().removeIf(session -> session.isExpired(PREFETCH_TIMEOUT)); // Disconnected during login
+        LinkHandler.getInstance().getStore().retain(uuid); // Loads the link here instead of on the main thread
+        this.prefetched.put(uuid, this.create(uuid));
+    }
+
+    /**
+     * Forgets the prefetched session of a player that has been denied to log in
+     * @param uuid The player that has been denied
+     */
+    public void discard(@NonNull UUID uuid) {
+        this.prefetched.remove(uuid);
+        LinkHandler.getInstance().getStore().release(uuid);
+    }
+
+    /**
+     * Stores the session of a player until the player quits, using the prefetched session if there is one
+     * @param uuid The player that joined
+     * @return the new session
+     */
+    public PlayerSession open(@NonNull UUID uuid) {
+        PlayerSession session = this.prefetched.remove(uuid);
+        if (session == null || session.isExpired(PREFETCH_TIMEOUT)) {
+            logger.debug("No prefetched session for {}, resolving it in the background", uuid);
+            LinkHandler.getInstance().getStore().retain(uuid);
+            session = this.create(uuid); // Only uses cached links on the main thread, the refresh resolves the others
+            Bukkit.getScheduler().runTaskAsynchronously(MinecraftDiscord.getInstance(), () -> this.refresh(uuid));
+        }
+
+        if (session.isResolved()) {
+            this.users.put(session.getId(), session);
+        }
+        PlayerSession previous = this.sessions.put(uuid, session);
+        if (previous != null && previous.isResolved() && previous.getId() != session.getId()) {
+            this.users.remove(previous.getId(), previous);
+        }
+        return session;
+    }
+
+    /**
+     * Forgets the session of a player
+     * @param uuid The player that quit
+     */
+    public void close(@NonNull UUID uuid) {
+        PlayerSession session = this.sessions.remove(uuid);
+        if (session != null && session.isResolved()) {
+            this.users.remove(session.getId(), session);
+        }
+        LinkHandler.getInstance().getStore().release(uuid);
+    }
+
+    /**
+     * @param uuid The player to look up
+     * @return the session of the player, or null if the player is not online
+     */
+    public PlayerSession getSession(@NonNull UUID uuid) {
+        return this.sessions.get(uuid);
+    }
+
+    /**
+     * Returns the session of an online player, or resolves the link without keeping it, e.g. for a player that is
+     * still joining or has already quit
+     * @param uuid The player to look up
+     * @return the session of the player
+     */
+    public PlayerSession resolve(@NonNull UUID uuid) {
+        PlayerSession session = this.sessions.get(uuid);
+        return session == null ? this.create(uuid) : session;
+    }
+
+    /**
+     * Resolves the session of a player again, used after the link of the player changed
+     * @param uuid The player whose link changed
+     */
+    public void refresh(@NonNull UUID uuid) {
+        this.prefetched.remove(uuid);
+        if (!this.sessions.containsKey(uuid)) {
+            return;
+        }
+
+        PlayerSession session = this.create(uuid);
+        this.sessions.computeIfPresent(uuid, (key, previous) -> { // A player that quit in the meantime stays closed
+            if (previous.isResolved()) {
+                this.users.remove(previous.getId(), previous);
+            }
+            if (session.isResolved()) {
+                this.users.put(session.getId(), session);
+            }
+            return session;
+        });
+    }
+
+    /**
+     * Resolves all sessions again, used after links have been changed in bulk
+     */
+    public void refreshAll() {
+        this.sessions.keySet().forEach(this::refresh);
+    }
+
+    /**
+     * Updates the shadowed roles of a Discord user, called when Discord reports a role change
+     * @param user The Discord user whose roles changed
+     */
+    public void updateRoles(@NonNull IUser user) {
+        PlayerSession session = this.users.get(user.getLongID());
+        if (session != null) {
+            session.setRoles(this.shadow(user));
+        }
+    }
+
+    private PlayerSession create(UUID uuid) {
+        long id = LinkHandler.getInstance().getStore().getId(uuid);
+        IUser user = id == LinkIndex.NONE ? null : ClientHandler.getInstance().getClient().getUserByID(id);
+
+        PlayerSession session = new PlayerSession(uuid, id, user);
+        if (user != null) {
+            session.setRoles(this.shadow(user));
+        }
+        return session;
+    }
+
+    private long[] shadow(IUser user) {
+        long[] roles = new long[0];
+        int size = 0;
+        for (IGuild guild : ClientHandler.getInstance().getClient().getGuilds()) {
+            List<IRole> guildRoles = user.getRolesForGuild(guild);
+            roles = Arrays.copyOf(roles, size + guildRoles.size());
+            for (IRole role : guildRoles) {
+                roles[size++] = role.getLongID();
+            }
+        }
+        Arrays.sort(roles);
+        return roles;
+    }
+}
@@ -38,85 +38,176 @@ import com.mashape.unirest.http.HttpResponse;
 import com.mashape.unirest.http.Unirest;
 import com.mashape.unirest.http.exceptions.UnirestException;
 import io.github.jordieh.minecraftdiscord.MinecraftDiscord;
-import org.bukkit.World;
-import org.bukkit.event.Listener;
-import org.bukkit.plugin.java.JavaPlugin;
+import io.github.jordieh.minecraftdiscord.common.RateLimitRoute;
+import io.github.jordieh.minecraftdiscord.common.RequestPriority;
+import io.github.jordieh.minecraftdiscord.discord.RateLimitHandler.Bucket;
+import io.github.jordieh.minecraftdiscord.world.ChannelHandler;
+import lombok.NonNull;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sx.blah.discord.handle.obj.IChannel;
 import sx.blah.discord.handle.obj.IWebhook;
+import sx.blah.discord.util.RateLimitException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Relays chat through webhooks so messages show the name and avatar of the player.
+ * Every connected channel gets a pool of webhooks that is resolved once and executed from the {@link RequestScheduler},
+ * players are spread over the pool so every webhook adds its own rate limit to the channel.
+ */
+public final class WebhookHandler {
 
-import java.util.concurrent.TimeUnit;
-
-@Deprecated
-public class WebhookHandler implements Listener {
+    private final Logger logger = LoggerFactory.getLogger(WebhookHandler.class);
 
     private static WebhookHandler instance;
 
-    private JavaPlugin javaPlugin = MinecraftDiscord.getInstance();
+    private static final String API = "https://discordapp.com/api/webhooks/";
+    private static final int MAX_WEBHOOKS = 10; // Maximum amount of webhooks in a single channel
+
+    private final Map<Long, List<IWebhook>> webhooks; // Channel ID -> Webhook pool
+    private final int poolSize;
 
-    private int rateLimitRemaining;
-    private long rateLimitReset;
-    private int requestCount;
-    private long startTime = System.currentTimeMillis();
-    private int rateLimit;
+    private WebhookHandler() {
+        logger.debug("Constructing WebhookHandler");
+        FileConfiguration configuration = MinecraftDiscord.getInstance().getConfig();
+
+        // Unirest keeps the connections of its pool alive, so every webhook execution reuses an open connection
+        int connections = Math.max(1, configuration.getInt("webhooks.max-connections", 8));
+        Unirest.setConcurrency(connections, connections);
+        Unirest.setTimeouts(configuration.getLong("webhooks.connect-timeout", 5000), configuration.getLong("webhooks.socket-timeout", 10000));
+
+        this.poolSize = Math.min(MAX_WEBHOOKS, Math.max(1, configuration.getInt("webhooks.pool-size", 1)));
+        this.webhooks = new ConcurrentHashMap<>();
+    }
 
-    @Deprecated
     public static WebhookHandler getInstance() {
         return instance == null ? instance = new WebhookHandler() : instance;
     }
 
-    @Deprecated
-    public IWebhook getWebhook(World world) {
-        String target = "MinecraftDiscord [" + world.getName() + "]";
-        return ClientHandler.getInstance().getClient().getGuildByID(429002537673293835L).getWebhooks().stream()
-                .filter(webhook -> webhook.getDefaultName().equals(target))
-                .findFirst().orElseGet(() -> createWebhook(world));
+    /**
+     * @return whether the handler has been created, which only happens when webhook mode is used
+     */
+    public static boolean isInitialized() {
+        return instance != null;
+    }
+
+    /**
+     * Looks up or creates the webhooks of all connected channels, this happens in the background
+     */
+    public void resolveWebhooks() {
+        Map<String, Long> channels = ChannelHandler.getInstance().getLongMap();
+        this.webhooks.keySet().retainAll(channels.values()); // Forget channels that are no longer connected
+        channels.forEach((name, id) -> {
+            if (name.equals("console")) {
+                return;
+            }
+
+            IChannel channel = ClientHandler.getInstance().getClient().getChannelByID(id);
+            if (channel == null) {
+                return;
+            }
+
+            RequestScheduler.getInstance().submit(RequestPriority.COMMAND, id, () -> {
+                List<IWebhook> existing = channel.getWebhooks();
+                List<IWebhook> pool = new ArrayList<>(this.poolSize);
+                for (int i = 0; i < this.poolSize; i++) {
+                    String webhookName = "MinecraftDiscord [" + name + "]" + (i == 0 ? "" : " #" + (i + 1));
+                    pool.add(existing.stream()
+                            .filter(w -> webhookName.equals(w.getDefaultName()))
+                            .findFirst().orElseGet(() -> channel.createWebhook(webhookName)));
+                }
+                // The pool is only published once it is complete, so players keep using the same webhook
+                this.webhooks.put(id, Collections.unmodifiableList(pool));
+                logger.debug("Resolved {} webhooks for #{}", pool.size(), channel.getName());
+            });
+        });
     }
 
-    @Deprecated
-    private IWebhook createWebhook(World world) {
-        String name = "MinecraftDiscord [" + world.getName() + "]";
-        return ClientHandler.getInstance().getClient().getGuildByID(429002537673293835L).getChannelsByName(world.getName()).get(0).createWebhook(name);
+    /**
+     * Returns the cached webhook of a channel that is used for the messages of a player,
+     * a player always gets the same webhook of the pool so their messages stay in order
+     * @param channel The connected channel
+     * @param uuid The UUID of the player
+     * @return the webhook, or an empty optional when the pool has not been resolved
+     */
+    public Optional<IWebhook> getWebhook(@NonNull IChannel channel, @NonNull String uuid) {
+        List<IWebhook> pool = this.webhooks.get(channel.getLongID());
+        if (pool == null || pool.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(pool.get(Math.floorMod(uuid.hashCode(), pool.size())));
     }
 
     public void sendWebhook(IWebhook webhook, String username, String content, String avatarUrl) {
-        String url = "https://discordapp.com/api/webhooks/" + webhook.getLongID() + "/" + webhook.getToken();
+        String url = API + webhook.getLongID() + "/" + webhook.getToken();
+        Bucket bucket = RateLimitHandler.getInstance().getBucket(RateLimitRoute.WEBHOOK, webhook.getLongID());
 
-        Runnable runnable = () -> {
+        JSONObject body = new JSONObject();
+        body.put("content", content);
+        body.put("username", username);
+        body.put("avatar_url", avatarUrl);
+
+        RequestScheduler.getInstance().submit(RequestPriority.CHAT, webhook.getLongID(), bucket, () -> {
             HttpResponse<String> response;
             try {
                 response = Unirest.post(url)
-                        .field("content", content)
-                        .field("username", username)
-                        .field("avatar_url", avatarUrl)
+                        .header("Content-Type", "application/json")
+                        .body(body)
                         .asString();
             } catch (UnirestException e) {
-                e.printStackTrace();
+                logger.warn("Could not execute webhook {}", webhook.getLongID(), e);
                 return;
             }
 
-            this.rateLimitRemaining = Integer.parseInt(response.getHeaders().getFirst("X-RateLimit-Remaining"));
-            this.rateLimitReset = Long.parseLong(response.getHeaders().getFirst("X-RateLimit-Reset"));
-            this.rateLimit = Integer.parseInt(response.getHeaders().getFirst("X-RateLimit-Limit"));
+            RateLimitHandler.getInstance().update(bucket, response.getHeaders());
 
-            System.out.println("Received API response: " + response.getStatus() + (response.getBody() == null ? "" : " ->\n" + response.getBody()));
-        };
+            if (response.getStatus() == 429) {
+                boolean global = "true".equalsIgnoreCase(response.getHeaders().getFirst("X-RateLimit-Global"));
+                throw new RateLimitException("Webhook rate limited", retryAfter(response), "POST", global);
+            }
 
-        this.schedule(runnable);
+            if (response.getStatus() == 404) {
+                logger.warn("Webhook {} has been deleted, falling back to embeds until the next reload", webhook.getLongID());
+                this.webhooks.values().removeIf(pool -> pool.contains(webhook));
+                return;
+            }
 
+            if (response.getStatus() / 100 != 2) {
+                logger.warn("Webhook {} responded with status {}: {}", webhook.getLongID(), response.getStatus(), response.getBody());
+            }
+        });
     }
 
-    private void schedule(Runnable runnable) {
-        requestCount++;
-        if (requestCount == rateLimitRemaining) {
-            long diff = System.currentTimeMillis() - startTime;
-
-            if (diff < 1000) {
-                javaPlugin.getServer().getScheduler().runTaskLater(javaPlugin, runnable, (TimeUnit.MILLISECONDS.toSeconds(diff) + rateLimitReset) * 20L);
-            }
+    /**
+     * Closes the pooled HTTP connections
+     */
+    public void shutdown() {
+        try {
+            Unirest.shutdown();
+        } catch (IOException e) {
+            logger.debug("Could not close the webhook connections", e);
+        }
+    }
 
-            startTime = System.currentTimeMillis();
-            requestCount = 0;
+    /**
+     * Reads the amount of milliseconds Discord asked us to wait from a 429 response
+     */
+    private long retryAfter(HttpResponse<String> response) {
+        try {
+            return new JSONObject(response.getBody()).optLong("retry_after", 1000L);
+        } catch (JSONException e) {
+            return 1000L;
         }
-        javaPlugin.getServer().getScheduler().runTask(javaPlugin, runnable);
     }
 
 }
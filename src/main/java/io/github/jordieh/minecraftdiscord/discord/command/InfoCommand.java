@@ -18,6 +18,7 @@
 package io.github.jordieh.minecraftdiscord.discord.command;
 
 import io.github.jordieh.minecraftdiscord.MinecraftDiscord;
+import io.github.jordieh.minecraftdiscord.common.RequestPriority;
 import io.github.jordieh.minecraftdiscord.discord.ClientHandler;
 import sx.blah.discord.handle.impl.events.guild.channel.message.MessageReceivedEvent;
 import sx.blah.discord.handle.obj.IChannel;
@@ -37,7 +38,7 @@ public class InfoCommand implements CommandExecutor {
             builder.withAuthorIcon(author.getAvatarURL());
 
             ClientHandler.getInstance().deleteMessage(message);
-            ClientHandler.getInstance().sendMessage(channel, builder.build());
+            ClientHandler.getInstance().sendMessage(channel, builder.build(), RequestPriority.COMMAND);
             return;
         }
 
@@ -70,6 +71,6 @@ public class InfoCommand implements CommandExecutor {
         builder.appendField("Available roles", roleBuilder.toString(), true);
 
         ClientHandler.getInstance().deleteMessage(message);
-        ClientHandler.getInstance().sendMessage(channel, builder.build());
+        ClientHandler.getInstance().sendMessage(channel, builder.build(), RequestPriority.COMMAND);
     }
 }
@@ -19,7 +19,10 @@ package io.github.jordieh.minecraftdiscord.discord.command;
 
 import io.github.jordieh.minecraftdiscord.api.ConnectionRoute;
 import io.github.jordieh.minecraftdiscord.api.events.PlayerAccountLinkEvent;
+import io.github.jordieh.minecraftdiscord.common.RequestPriority;
 import io.github.jordieh.minecraftdiscord.common.UserPair;
+import io.github.jordieh.minecraftdiscord.configuration.ConfigurationHandler;
+import io.github.jordieh.minecraftdiscord.configuration.ConfigurationSnapshot;
 import io.github.jordieh.minecraftdiscord.discord.ClientHandler;
 import io.github.jordieh.minecraftdiscord.discord.LinkHandler;
 import io.github.jordieh.minecraftdiscord.discord.RoleHandler;
@@ -34,13 +37,25 @@ import sx.blah.discord.handle.obj.IMessage;
 import sx.blah.discord.handle.obj.IUser;
 import sx.blah.discord.util.EmbedBuilder;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class LinkCommand extends Translatable implements CommandExecutor {
 
+    private static final int PURGE_THRESHOLD = 1024;
+
+    private final Map<Long, Attempts> attempts = new HashMap<>(); // Discord ID -> Invalid codes in the current window
+
     @Override
     public void execute(MessageReceivedEvent event, IChannel channel, IMessage message, IUser author, String[] args) {
+        ConfigurationSnapshot configuration = ConfigurationHandler.getInstance().getSnapshot();
+        if (this.isThrottled(author.getLongID(), configuration)) {
+            return; // Ignored without a single request, so guessing codes does not use up the rate limits of the bot
+        }
+
         LinkHandler linkHandler = LinkHandler.getInstance();
 
         if (linkHandler.isLinked(author)) { // This gets activated when the user already has a linked account
@@ -51,7 +66,7 @@ public class LinkCommand extends Translatable implements CommandExecutor {
             builder.withDescription(tr("discord.link.failed", linkHandler.getUserUUIDString(author)));
 
             ClientHandler.getInstance().deleteMessage(message);
-            ClientHandler.getInstance().sendMessage(channel, builder.build());
+            ClientHandler.getInstance().sendMessage(channel, builder.build(), RequestPriority.COMMAND);
             return;
         }
 
@@ -59,13 +74,13 @@ public class LinkCommand extends Translatable implements CommandExecutor {
 
         if (!matcher.matches()) { // If this activates the code was invalid
             EmbedBuilder builder = new EmbedBuilder();
-            builder.withDescription(tr("discord.link.usage"));
+            builder.withDescription(this.reject(author, configuration, "discord.link.usage"));
             builder.withAuthorIcon(author.getAvatarURL());
             builder.withAuthorName(author.getDisplayName(event.getGuild()));
             builder.withColor(0xFF5555);
 
             ClientHandler.getInstance().deleteMessage(message);
-            ClientHandler.getInstance().sendMessage(channel, builder.build());
+            ClientHandler.getInstance().sendMessage(channel, builder.build(), RequestPriority.COMMAND);
             return;
         }
 
@@ -74,17 +89,20 @@ public class LinkCommand extends Translatable implements CommandExecutor {
 
         if (pair.isEmpty()) { // If this gets triggered, the account linking has failed
             EmbedBuilder builder = new EmbedBuilder();
-            builder.withDescription(tr("discord.link.invalid"));
+            builder.withDescription(this.reject(author, configuration, "discord.link.invalid"));
             builder.withAuthorName(author.getDisplayName(event.getGuild()));
             builder.withAuthorIcon(author.getAvatarURL());
             builder.withColor(0xFF5555);
 
             ClientHandler.getInstance().deleteMessage(message);
-            ClientHandler.getInstance().sendMessage(channel, builder.build());
+            ClientHandler.getInstance().sendMessage(channel, builder.build(), RequestPriority.COMMAND);
             return;
         }
 
-        Bukkit.getPluginManager().callEvent(new PlayerAccountLinkEvent(pair.getRight(), author, ConnectionRoute.DISCORD));
+        synchronized (this.attempts) {
+            this.attempts.remove(author.getLongID());
+        }
+        linkHandler.callEvent(() -> new PlayerAccountLinkEvent(pair.getRight(), author, ConnectionRoute.DISCORD));
         OfflinePlayer offlinePlayer = Bukkit.getOfflinePlayer(pair.getRight());
 
         EmbedBuilder builder = new EmbedBuilder();
@@ -94,7 +112,7 @@ public class LinkCommand extends Translatable implements CommandExecutor {
         builder.withDescription(tr("discord.link.success"));
 
         ClientHandler.getInstance().deleteMessage(message);
-        ClientHandler.getInstance().sendMessage(channel, builder.build());
+        ClientHandler.getInstance().sendMessage(channel, builder.build(), RequestPriority.COMMAND);
 
         Player player = offlinePlayer.getPlayer();
         if (player != null) {
@@ -104,4 +122,51 @@ public class LinkCommand extends Translatable implements CommandExecutor {
         RoleHandler.getInstance().giveConnectionRole(pair.getRight());
 
     }
+
+    private boolean isThrottled(long user, ConfigurationSnapshot configuration) {
+        synchronized (this.attempts) {
+            Attempts attempts = this.attempts.get(user);
+            return attempts != null && !attempts.isExpired(configuration) && attempts.count >= configuration.getLinkAttempts();
+        }
+    }
+
+    /**
+     * Counts an invalid attempt of a user
+     * @return the message for the user, which tells them to wait if this was their last attempt
+     */
+    private String reject(IUser author, ConfigurationSnapshot configuration, String key) {
+        int count;
+        long remaining; // Milliseconds until the attempts are reset
+        synchronized (this.attempts) {
+            if (this.attempts.size() >= PURGE_THRESHOLD) {
+                this.attempts.values().removeIf(attempts -> attempts.isExpired(configuration));
+            }
+            Attempts attempts = this.attempts.get(author.getLongID());
+            if (attempts == null || attempts.isExpired(configuration)) {
+                attempts = new Attempts();
+                this.attempts.put(author.getLongID(), attempts);
+            }
+            count = ++attempts.count;
+            remaining = attempts.getRemaining(configuration);
+        }
+        if (count >= configuration.getLinkAttempts()) {
+            long minutes = (remaining + TimeUnit.MINUTES.toMillis(1) - 1) / TimeUnit.MINUTES.toMillis(1); // Rounded up
+            return tr("discord.link.throttled", Math.max(1, minutes));
+        }
+        return tr(key);
+    }
+
+    private static final class Attempts {
+
+        private final long start = System.currentTimeMillis();
+        private int count;
+
+        private boolean isExpired(ConfigurationSnapshot configuration) {
+            return this.getRemaining(configuration) <= 0;
+        }
+
+        private long getRemaining(ConfigurationSnapshot configuration) {
+            return this.start + TimeUnit.SECONDS.toMillis(configuration.getLinkAttemptWindow()) - System.currentTimeMillis();
+        }
+    }
 }
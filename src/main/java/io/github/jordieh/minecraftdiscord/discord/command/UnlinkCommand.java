@@ -19,6 +19,7 @@ package io.github.jordieh.minecraftdiscord.discord.command;
 
 import io.github.jordieh.minecraftdiscord.api.ConnectionRoute;
 import io.github.jordieh.minecraftdiscord.api.events.PlayerAccountUnLinkEvent;
+import io.github.jordieh.minecraftdiscord.common.RequestPriority;
 import io.github.jordieh.minecraftdiscord.common.UserPair;
 import io.github.jordieh.minecraftdiscord.discord.ClientHandler;
 import io.github.jordieh.minecraftdiscord.discord.LinkHandler;
@@ -41,7 +42,7 @@ public class UnlinkCommand extends Translatable implements CommandExecutor {
         UserPair pair = linkHandler.unlink(author.getLongID());
 
         if (!pair.isEmpty()) {
-            Bukkit.getPluginManager().callEvent(new PlayerAccountUnLinkEvent(pair.getRight(), author, ConnectionRoute.DISCORD));
+            linkHandler.callEvent(() -> new PlayerAccountUnLinkEvent(pair.getRight(), author, ConnectionRoute.DISCORD));
 
             String s = pair.getRight().toString();
             OfflinePlayer offlinePlayer = Bukkit.getOfflinePlayer(pair.getRight());
@@ -53,7 +54,7 @@ public class UnlinkCommand extends Translatable implements CommandExecutor {
             builder.withColor(author.getColorForGuild(event.getGuild()));
 
             ClientHandler.getInstance().deleteMessage(message);
-            ClientHandler.getInstance().sendMessage(channel, builder.build());
+            ClientHandler.getInstance().sendMessage(channel, builder.build(), RequestPriority.COMMAND);
 
             Player player = offlinePlayer.getPlayer();
             if (player != null) {
@@ -65,7 +66,7 @@ public class UnlinkCommand extends Translatable implements CommandExecutor {
             builder.withColor(0xFF5555);
 
             ClientHandler.getInstance().deleteMessage(message);
-            ClientHandler.getInstance().sendMessage(channel, builder.build());
+            ClientHandler.getInstance().sendMessage(channel, builder.build(), RequestPriority.COMMAND);
         }
     }
 }
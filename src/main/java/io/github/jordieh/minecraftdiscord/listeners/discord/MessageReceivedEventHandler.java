@@ -17,15 +17,15 @@
 
 package io.github.jordieh.minecraftdiscord.listeners.discord;
 
-import io.github.jordieh.minecraftdiscord.MinecraftDiscord;
+import io.github.jordieh.minecraftdiscord.common.RequestPriority;
+import io.github.jordieh.minecraftdiscord.configuration.ConfigurationHandler;
+import io.github.jordieh.minecraftdiscord.configuration.ConfigurationSnapshot;
 import io.github.jordieh.minecraftdiscord.discord.ClientHandler;
 import io.github.jordieh.minecraftdiscord.discord.CommandHandler;
+import io.github.jordieh.minecraftdiscord.discord.InboundHandler;
 import io.github.jordieh.minecraftdiscord.discord.LinkHandler;
 import io.github.jordieh.minecraftdiscord.util.FormatUtil;
-import io.github.jordieh.minecraftdiscord.util.Translatable;
 import io.github.jordieh.minecraftdiscord.world.ChannelHandler;
-import org.bukkit.Bukkit;
-import org.bukkit.configuration.file.FileConfiguration;
 import sx.blah.discord.api.events.IListener;
 import sx.blah.discord.handle.impl.events.guild.channel.message.MessageReceivedEvent;
 import sx.blah.discord.handle.obj.IChannel;
@@ -35,16 +35,16 @@ import sx.blah.discord.util.EmbedBuilder;
 
 import java.util.Optional;
 
-public class MessageReceivedEventHandler extends Translatable implements IListener<MessageReceivedEvent> {
+public class MessageReceivedEventHandler implements IListener<MessageReceivedEvent> {
 
     @Override
     public void handle(MessageReceivedEvent event) {
-        FileConfiguration configuration = MinecraftDiscord.getInstance().getConfig();
+        ConfigurationSnapshot configuration = ConfigurationHandler.getInstance().getSnapshot();
         IChannel channel = event.getChannel();
         IMessage message = event.getMessage();
         IUser author = event.getAuthor();
 
-        if (configuration.getBoolean("options.disable-automated-users")) {
+        if (configuration.isDisableAutomatedUsers()) {
             if (author.isBot() || message.getWebhookLongID() != 0) {
                 return;
             }
@@ -64,17 +64,17 @@ public class MessageReceivedEventHandler extends Translatable implements IListen
             if (content.startsWith("/")) {
                 content = content.replaceFirst("/", "");
             }
-            Bukkit.getServer().dispatchCommand(Bukkit.getConsoleSender(), content);
+            InboundHandler.getInstance().queueCommand(content);
             return;
         }
 
-        if (MinecraftDiscord.getInstance().getConfig().getBoolean("options.require-linking")) {
+        if (configuration.isRequireLinking()) {
             if (!LinkHandler.getInstance().isLinked(author)) {
                 return;
             }
         }
 
-        int truncationLength = configuration.getInt("options.truncation-size");
+        int truncationLength = configuration.getTruncationSize();
         String content = FormatUtil.formatRegex(message.getContent());
 
         if (content.length() > truncationLength) {
@@ -86,14 +86,9 @@ public class MessageReceivedEventHandler extends Translatable implements IListen
             builder.withAuthorIcon(author.getAvatarURL());
             builder.withColor(author.getColorForGuild(event.getGuild()));
             builder.withAuthorName(author.getName());
-            ClientHandler.getInstance().sendMessage(channel, builder.build());
+            ClientHandler.getInstance().sendMessage(channel, builder.build(), RequestPriority.COMMAND);
         }
 
-        String msg = tr("discord.message.format",
-                channel.getName(),
-                FormatUtil.stripColors(author.getName()),
-                content);
-
-        Bukkit.broadcastMessage(FormatUtil.formatColors(msg));
+        InboundHandler.getInstance().queueChat(channel.getName(), FormatUtil.stripColors(author.getName()), content);
     }
 }
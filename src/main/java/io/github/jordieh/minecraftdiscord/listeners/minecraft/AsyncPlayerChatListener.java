@@ -34,19 +34,16 @@
 
 package io.github.jordieh.minecraftdiscord.listeners.minecraft;
 
-import io.github.jordieh.minecraftdiscord.MinecraftDiscord;
-import io.github.jordieh.minecraftdiscord.discord.ClientHandler;
-import io.github.jordieh.minecraftdiscord.util.FormatUtil;
+import io.github.jordieh.minecraftdiscord.configuration.ConfigurationHandler;
+import io.github.jordieh.minecraftdiscord.discord.ChatHandler;
 import io.github.jordieh.minecraftdiscord.common.MessageType;
 import io.github.jordieh.minecraftdiscord.world.ChannelHandler;
 import org.bukkit.World;
-import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.AsyncPlayerChatEvent;
 import sx.blah.discord.handle.obj.IChannel;
-import sx.blah.discord.util.EmbedBuilder;
 
 import java.util.Optional;
 
@@ -54,17 +51,7 @@ public class AsyncPlayerChatListener implements Listener {
 
     @EventHandler
     public void onAsyncPlayerChat(AsyncPlayerChatEvent event) {
-        FileConfiguration configuration = MinecraftDiscord.getInstance().getConfig();
-
-        MessageType messageType;
-        try {
-            messageType = MessageType.valueOf(configuration.getString("options.message-type").toUpperCase());
-            if (messageType == MessageType.WEBHOOK) {
-                messageType = MessageType.EMBED_ADVANCED;
-            }
-        } catch (IllegalArgumentException e) {
-            messageType = MessageType.MESSAGE;
-        }
+        MessageType messageType = ConfigurationHandler.getInstance().getSnapshot().getMessageType();
 
         Player player = event.getPlayer();
         World world = player.getWorld();
@@ -72,51 +59,20 @@ public class AsyncPlayerChatListener implements Listener {
         Optional<IChannel> specific = ChannelHandler.getInstance().getConnectedChannel(world.getName());
         Optional<IChannel> global = ChannelHandler.getInstance().getGlobalChannel();
 
-        switch (messageType) {
-            case MESSAGE: {
-                specific.ifPresent(channel ->
-                    ClientHandler.getInstance().sendMessage(channel, String.format("%s: %s", player.getName(), event.getMessage())));
-                global.ifPresent(channel ->
-                    ClientHandler.getInstance().sendMessage(channel, String.format("%s: %s", player.getName(), event.getMessage())));
-                break;
-            }
-            case EMBED: {
-                EmbedBuilder builder = new EmbedBuilder();
-                builder.withDescription(event.getMessage());
-                builder.withAuthorName(player.getName());
-                builder.withAuthorIcon(FormatUtil.avatarUrl(player.getUniqueId().toString()));
+        String name = player.getName();
+        String uuid = player.getUniqueId().toString();
+        String message = event.getMessage();
 
-                specific.ifPresent(channel ->
-                        ClientHandler.getInstance().sendMessage(channel, builder.build()));
-                global.ifPresent(channel ->
-                        ClientHandler.getInstance().sendMessage(channel, builder.build()));
-                break;
-            }
+        switch (messageType) {
+            case MESSAGE:
+            case WEBHOOK:
+            case EMBED:
             case EMBED_ADVANCED: {
-                EmbedBuilder builder = new EmbedBuilder();
-                builder.withDescription(event.getMessage());
-                builder.withAuthorName(player.getName());
-                builder.withThumbnail(FormatUtil.avatarUrl(player.getUniqueId().toString()));
-
-                specific.ifPresent(channel ->
-                    ClientHandler.getInstance().sendMessage(channel, builder.build()));
-                global.ifPresent(channel ->
-                    ClientHandler.getInstance().sendMessage(channel, builder.build()));
+                MessageType type = messageType;
+                specific.ifPresent(channel -> ChatHandler.getInstance().queue(channel, type, name, uuid, message));
+                global.ifPresent(channel -> ChatHandler.getInstance().queue(channel, type, name, uuid, message));
                 break;
             }
-//            case WEBHOOK: {
-//                String avatarUrl = plugin.getConfig().getString("options.message-render")
-//                        .replace("<uuid>", player.getUniqueId().toString());
-//
-//                IWebhook webhook = WebhookHandler.getInstance().getWebhook(player.getWorld());
-//                WebhookHandler.getInstance().sendWebhook(
-//                        webhook,
-//                        player.getName(),
-//                        event.getMessage(),
-//                        avatarUrl
-//                );
-//                break;
-//            }
             default: {
                 // Should never technically happen
                 break;
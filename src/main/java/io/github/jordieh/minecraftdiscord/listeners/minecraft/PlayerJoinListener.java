@@ -19,6 +19,7 @@ package io.github.jordieh.minecraftdiscord.listeners.minecraft;
 
 import io.github.jordieh.minecraftdiscord.dependencies.DependencyHandler;
 import io.github.jordieh.minecraftdiscord.discord.RoleHandler;
+import io.github.jordieh.minecraftdiscord.discord.SessionHandler;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
@@ -28,8 +29,8 @@ public class PlayerJoinListener implements Listener {
 
     @EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
     public void onPlayerJoin(PlayerJoinEvent event) {
-        if (DependencyHandler.getInstance().isVanished(event.getPlayer())) {
-            System.out.println("Player " +event.getPlayer().getName() + " is currently vanished");
+        SessionHandler.getInstance().open(event.getPlayer().getUniqueId());
+        if (!DependencyHandler.getInstance().isVanished(event.getPlayer())) {
             RoleHandler.getInstance().giveConnectionRole(event.getPlayer().getUniqueId());
         }
     }
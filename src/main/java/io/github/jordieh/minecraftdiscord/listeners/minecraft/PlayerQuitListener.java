@@ -18,6 +18,7 @@
 package io.github.jordieh.minecraftdiscord.listeners.minecraft;
 
 import io.github.jordieh.minecraftdiscord.discord.RoleHandler;
+import io.github.jordieh.minecraftdiscord.discord.SessionHandler;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerQuitEvent;
@@ -27,6 +28,7 @@ public class PlayerQuitListener implements Listener {
     @EventHandler
     public void onPlayerQuit(PlayerQuitEvent event) {
         RoleHandler.getInstance().removeConnectionRole(event.getPlayer().getUniqueId());
+        SessionHandler.getInstance().close(event.getPlayer().getUniqueId());
     }
 
 }
@@ -0,0 +1,131 @@
+/*
+ *     This file is part of MinecraftDiscord.
+ *
+ *     MinecraftDiscord is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     MinecraftDiscord is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with MinecraftDiscord.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.jordieh.minecraftdiscord.storage;
+
+import io.github.jordieh.minecraftdiscord.common.LinkIndex;
+import lombok.NonNull;
+
+import java.util.UUID;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Guards a {@link LinkIndex} for the Discord dispatcher threads, the main thread and the async chat threads.
+ * Lookups are optimistic and never block or write to shared memory unless a link changed while they ran,
+ * every link and unlink replaces both sides of a link at once so no thread can observe half a link.
+ * An optimistic lookup may see the index halfway through a write, {@link LinkIndex} bounds its probing so such a
+ * lookup always ends, and any exception or result it produces is discarded when the stamp does not validate.
+ */
+final class ConcurrentLinkIndex {
+
+    private final StampedLock lock = new StampedLock();
+    private final LinkIndex links;
+
+    ConcurrentLinkIndex(@NonNull LinkIndex links) {
+        this.links = links;
+    }
+
+    int size() {
+        long stamp = this.lock.readLock();
+        try {
+            return this.links.size();
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+    }
+
+    UUID getUuid(long id) {
+        long stamp = this.lock.tryOptimisticRead();
+        if (stamp != 0L) {
+            try {
+                UUID uuid = this.links.getUuid(id);
+                if (this.lock.validate(stamp)) {
+                    return uuid;
+                }
+            } catch (RuntimeException ignored) {
+                // The index was read halfway through a write, the result is discarded
+            }
+        }
+
+        stamp = this.lock.readLock();
+        try {
+            return this.links.getUuid(id);
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+    }
+
+    long getId(@NonNull UUID uuid) {
+        long stamp = this.lock.tryOptimisticRead();
+        if (stamp != 0L) {
+            try {
+                long id = this.links.getId(uuid);
+                if (this.lock.validate(stamp)) {
+                    return id;
+                }
+            } catch (RuntimeException ignored) {
+                // The index was read halfway through a write, the result is discarded
+            }
+        }
+
+        stamp = this.lock.readLock();
+        try {
+            return this.links.getId(uuid);
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+    }
+
+    void put(long id, @NonNull UUID uuid) {
+        long stamp = this.lock.writeLock();
+        try {
+            this.links.put(id, uuid);
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    UUID removeId(long id) {
+        long stamp = this.lock.writeLock();
+        try {
+            return this.links.removeId(id);
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    long removeUuid(@NonNull UUID uuid) {
+        long stamp = this.lock.writeLock();
+        try {
+            return this.links.removeUuid(uuid);
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return an independent copy that can be iterated without holding the lock
+     */
+    LinkIndex copy() {
+        long stamp = this.lock.readLock();
+        try {
+            return this.links.copy();
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+    }
+}
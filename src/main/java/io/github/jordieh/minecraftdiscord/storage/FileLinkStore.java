@@ -0,0 +1,163 @@
+/*
+ *     This file is part of MinecraftDiscord.
+ *
+ *     MinecraftDiscord is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     MinecraftDiscord is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with MinecraftDiscord.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.jordieh.minecraftdiscord.storage;
+
+import io.github.jordieh.minecraftdiscord.MinecraftDiscord;
+import io.github.jordieh.minecraftdiscord.common.LinkIndex;
+import lombok.NonNull;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Keeps all links in a {@link LinkIndex} and persists every change in a {@link LinkJournal}.
+ * Lookups do not lock, changes are serialized so the journal records them in the same order as the index.
+ */
+public final class FileLinkStore implements LinkStore {
+
+    private final Logger logger = LoggerFactory.getLogger(FileLinkStore.class);
+
+    private static final int COMPACTION_THRESHOLD = 4096; // Minimum amount of journal records before compacting
+    private static final long COMPACTION_INTERVAL = 6000L; // Ticks
+
+    private final LinkJournal journal;
+    private final ConcurrentLinkIndex links; // Discord ID <-> UUID
+
+    public FileLinkStore(@NonNull File folder) throws IOException {
+        this(folder, true);
+    }
+
+    /**
+     * @param folder The folder that contains the snapshot and the journal
+     * @param scheduled Whether the journal is compacted by a Bukkit task, only false when running outside a server
+     */
+    public FileLinkStore(@NonNull File folder, boolean scheduled) throws IOException {
+        this.journal = new LinkJournal(folder, "accounts");
+
+        File legacy = new File(folder, "accounts.yml");
+        boolean importLegacy = this.journal.isNew() && legacy.exists();
+
+        LinkIndex links = this.load();
+        if (importLegacy) {
+            ConfigurationSection section = YamlConfiguration.loadConfiguration(legacy).getConfigurationSection("accounts");
+            if (section != null) {
+                section.getValues(false).forEach((key, value) -> {
+                    long id = Long.parseLong(key);
+                    UUID uuid = UUID.fromString((String) value);
+                    links.put(id, uuid);
+                    this.journal.link(id, uuid);
+                });
+            }
+            this.journal.compact();
+            logger.info("Imported {} linked accounts from {}, this file is no longer used", links.size(), legacy.getName());
+        }
+        this.links = new ConcurrentLinkIndex(links);
+        logger.debug("Loaded {} linked accounts", links.size());
+
+        if (!scheduled) {
+            return;
+        }
+        Bukkit.getScheduler().runTaskTimerAsynchronously(MinecraftDiscord.getInstance(), () -> {
+            synchronized (this) {
+                if (this.journal.getRecords() > 0) {
+                    this.journal.compact();
+                }
+            }
+        }, COMPACTION_INTERVAL, COMPACTION_INTERVAL);
+    }
+
+    private LinkIndex load() throws IOException {
+        try {
+            return this.journal.load();
+        } catch (IOException e) {
+            // The journal only holds the changes since the snapshot, continuing without the snapshot would drop its links
+            throw new IOException("Could not load the linked accounts, accounts.dat has been left untouched. "
+                    + "Restore it from a backup, or remove it and the journal to start without links", e);
+        }
+    }
+
+    @Override
+    public UUID getUuid(long id) {
+        return this.links.getUuid(id);
+    }
+
+    @Override
+    public long getId(@NonNull UUID uuid) {
+        return this.links.getId(uuid);
+    }
+
+    @Override
+    public synchronized void link(long id, @NonNull UUID uuid) {
+        this.links.put(id, uuid);
+        this.journal.link(id, uuid);
+        this.compactIfNeeded();
+    }
+
+    @Override
+    public synchronized UUID unlink(long id) {
+        UUID uuid = this.links.removeId(id);
+        if (uuid != null) {
+            this.journal.unlink(id);
+            this.compactIfNeeded();
+        }
+        return uuid;
+    }
+
+    @Override
+    public synchronized long unlink(@NonNull UUID uuid) {
+        long id = this.links.removeUuid(uuid);
+        if (id != LinkIndex.NONE) {
+            this.journal.unlink(id);
+            this.compactIfNeeded();
+        }
+        return id;
+    }
+
+    @Override
+    public void forEach(@NonNull ObjLongConsumer<UUID> consumer) {
+        this.links.copy().forEach(consumer);
+    }
+
+    /**
+     * Writes a final snapshot and closes the journal
+     */
+    @Override
+    public synchronized void close() {
+        if (this.journal.getRecords() > 0) {
+            this.journal.compact();
+        }
+        this.journal.close(10000L);
+    }
+
+    /**
+     * Compacts the journal once it contains more records than there are links, the snapshot is written by the journal
+     * from its own copy so this does not copy the links
+     */
+    private void compactIfNeeded() {
+        if (this.journal.getRecords() > Math.max(COMPACTION_THRESHOLD, this.links.size())) {
+            this.journal.compact();
+        }
+    }
+}
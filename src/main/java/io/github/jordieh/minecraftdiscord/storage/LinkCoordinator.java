@@ -0,0 +1,334 @@
+/*
+ *     This file is part of MinecraftDiscord.
+ *
+ *     MinecraftDiscord is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     MinecraftDiscord is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with MinecraftDiscord.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.jordieh.minecraftdiscord.storage;
+
+import lombok.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Pushes link changes between the servers that share one link database, so every server can keep its own cache.
+ * One server hosts the coordinator and relays every change to all other servers, which connect to it.
+ * Servers authenticate with a shared secret, and whenever a server (re)connects every cache is cleared
+ * because changes made while it was disconnected were not received.
+ */
+public final class LinkCoordinator {
+
+    private final Logger logger = LoggerFactory.getLogger(LinkCoordinator.class);
+
+    private static final int MAGIC = 0x4D444C43;
+    private static final byte INVALIDATE = 1;
+    private static final byte INVALIDATE_ALL = 2;
+    private static final int NONCE_SIZE = 16;
+    private static final int CONNECT_TIMEOUT = 5000; // Milliseconds
+    private static final long MAXIMUM_RETRY_DELAY = 30000L; // Milliseconds
+
+    private final String host;
+    private final int port;
+    private final boolean hub;
+    private final byte[] secret;
+    private final Listener listener;
+
+    private final List<Peer> peers = new CopyOnWriteArrayList<>(); // The other servers, or only the hub
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile ServerSocket server;
+
+    /**
+     * @param host The address of the server that hosts the coordinator, or the address to bind to when hosting
+     * @param port The port of the coordinator
+     * @param hub Whether this server hosts the coordinator
+     * @param secret The secret every server is configured with
+     * @param listener Evicts the changes of other servers
+     */
+    public LinkCoordinator(@NonNull String host, int port, boolean hub, @NonNull String secret, @NonNull Listener listener) {
+        this.host = host;
+        this.port = port;
+        this.hub = hub;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.listener = listener;
+        this.thread = new Thread(hub ? this::accept : this::connect, "LinkCoordinator");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        this.thread.start();
+    }
+
+    /**
+     * Tells the other servers that a link has changed, only call this after the change has been committed
+     * @param id The Discord ID of the link
+     * @param uuid The Minecraft UUID of the link
+     */
+    public void publish(long id, @NonNull UUID uuid) {
+        this.broadcast(INVALIDATE, id, uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), null);
+    }
+
+    public void close() {
+        this.running = false;
+        ServerSocket server = this.server;
+        if (server != null) {
+            try {
+                server.close();
+            } catch (IOException ignored) {
+            }
+        }
+        this.peers.forEach(Peer::close);
+        this.thread.interrupt();
+    }
+
+    private void accept() {
+        try (ServerSocket server = new ServerSocket()) {
+            this.server = server;
+            server.bind(new InetSocketAddress(this.host, this.port));
+            logger.info("Hosting the link coordinator on {}:{}", this.host, this.port);
+            while (this.running) {
+                Socket socket = server.accept();
+                Thread thread = new Thread(() -> this.serve(socket), "LinkCoordinator " + socket.getRemoteSocketAddress());
+                thread.setDaemon(true);
+                thread.start();
+            }
+        } catch (IOException e) {
+            if (this.running) {
+                logger.error("The link coordinator stopped, other servers will not be notified of link changes", e);
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        Peer peer = null;
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(CONNECT_TIMEOUT); // Only while authenticating
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            byte[] nonce = new byte[NONCE_SIZE];
+            new SecureRandom().nextBytes(nonce);
+            out.writeInt(MAGIC);
+            out.write(nonce);
+            out.flush();
+            byte[] response = new byte[32];
+            in.readFully(response);
+            if (!MessageDigest.isEqual(response, this.sign(nonce))) {
+                logger.warn("Rejected {}, it is not configured with the same secret", socket.getRemoteSocketAddress());
+                return;
+            }
+            socket.setSoTimeout(0);
+
+            peer = new Peer(socket, out);
+            this.peers.add(peer);
+            logger.info("{} joined the link coordinator", socket.getRemoteSocketAddress());
+            // The server might have changed links while it was disconnected
+            this.listener.invalidateAll();
+            this.broadcast(INVALIDATE_ALL, 0, 0, 0, peer);
+            this.read(in, peer);
+        } catch (IOException e) {
+            if (this.running) {
+                logger.debug("Lost the connection to {}: {}", socket.getRemoteSocketAddress(), e.toString());
+            }
+        } finally {
+            if (peer != null) {
+                this.peers.remove(peer);
+                peer.close();
+                logger.info("{} left the link coordinator", socket.getRemoteSocketAddress());
+            }
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void connect() {
+        long delay = 1000L;
+        while (this.running) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(this.host, this.port), CONNECT_TIMEOUT);
+                socket.setTcpNoDelay(true);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Not a link coordinator");
+                }
+                byte[] nonce = new byte[NONCE_SIZE];
+                in.readFully(nonce);
+                out.write(this.sign(nonce));
+                out.flush();
+
+                Peer peer = new Peer(socket, out);
+                this.peers.add(peer);
+                logger.info("Connected to the link coordinator at {}:{}", this.host, this.port);
+                this.listener.invalidateAll(); // Changes made while disconnected were missed
+                delay = 1000L;
+                try {
+                    this.read(in, peer);
+                } finally {
+                    this.peers.remove(peer);
+                    peer.close();
+                }
+            } catch (IOException e) {
+                if (this.running) {
+                    logger.warn("Could not reach the link coordinator at {}:{}, retrying in {} seconds: {}",
+                            this.host, this.port, delay / 1000L, e.getMessage());
+                }
+            }
+
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                break;
+            }
+            delay = Math.min(MAXIMUM_RETRY_DELAY, delay * 2);
+        }
+    }
+
+    private void read(DataInputStream in, Peer source) throws IOException {
+        while (this.running) {
+            byte type = in.readByte();
+            long id = in.readLong();
+            long most = in.readLong();
+            long least = in.readLong();
+            if (type == INVALIDATE_ALL) {
+                this.listener.invalidateAll();
+            } else {
+                this.listener.invalidate(id, new UUID(most, least));
+            }
+            if (this.hub) {
+                this.broadcast(type, id, most, least, source); // Relay to the other servers
+            }
+        }
+    }
+
+    private void broadcast(byte type, long id, long most, long least, Peer source) {
+        for (Peer peer : this.peers) {
+            if (peer != source) {
+                peer.send(type, id, most, least);
+            }
+        }
+    }
+
+    private byte[] sign(byte[] nonce) throws IOException {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(this.secret, "HmacSHA256"));
+            return mac.doFinal(nonce);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not sign the handshake", e);
+        }
+    }
+
+    /**
+     * Receives the link changes of the other servers
+     */
+    public interface Listener {
+
+        void invalidate(long id, UUID uuid);
+
+        void invalidateAll();
+    }
+
+    /**
+     * A connected server, messages are written by its own thread so a slow server never holds up the database writer
+     */
+    private static final class Peer {
+
+        private static final int QUEUE_LIMIT = 10000; // A server that falls this far behind is disconnected
+
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final BlockingQueue<Message> queue = new LinkedBlockingQueue<>(QUEUE_LIMIT);
+        private final Thread thread;
+
+        private Peer(Socket socket, DataOutputStream out) {
+            this.socket = socket;
+            this.out = out;
+            this.thread = new Thread(this::write, "LinkCoordinator sender " + socket.getRemoteSocketAddress());
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        private void send(byte type, long id, long most, long least) {
+            if (!this.queue.offer(new Message(type, id, most, least))) {
+                // Dropping a change would leave a stale cache, reconnecting clears the whole cache of that server
+                this.close();
+            }
+        }
+
+        private void write() {
+            try {
+                while (true) {
+                    Message message = this.queue.take();
+                    this.out.writeByte(message.type);
+                    this.out.writeLong(message.id);
+                    this.out.writeLong(message.most);
+                    this.out.writeLong(message.least);
+                    if (this.queue.isEmpty()) {
+                        this.out.flush();
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                this.close(); // The reading thread notices and removes the peer
+            }
+        }
+
+        private void close() {
+            try {
+                this.socket.close();
+            } catch (IOException ignored) {
+            }
+            this.thread.interrupt();
+        }
+    }
+
+    private static final class Message {
+
+        private final byte type;
+        private final long id;
+        private final long most;
+        private final long least;
+
+        private Message(byte type, long id, long most, long least) {
+            this.type = type;
+            this.id = id;
+            this.most = most;
+            this.least = least;
+        }
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ *     This file is part of MinecraftDiscord.
+ *
+ *     MinecraftDiscord is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     MinecraftDiscord is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with MinecraftDiscord.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.jordieh.minecraftdiscord.storage;
+
+import io.github.jordieh.minecraftdiscord.common.LinkIndex;
+import lombok.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Stores account links as a binary snapshot plus an append-only journal of the changes made since.
+ * Appends and compactions are not thread-safe: callers have to make them one at a time, in the order
+ * the changes were applied in memory. Neither blocks, a single writer thread writes the queued records
+ * and syncs them to disk once per batch.
+ * The writer thread applies every record to its own copy of the links, so a compaction writes that copy
+ * as a new snapshot without copying the links of the caller. The new snapshot is written next to the old one
+ * and atomically renamed, after which the journal is truncated.
+ * Every record carries a sequence number and a checksum, so records that were already part of the snapshot
+ * and records that were torn by a crash are skipped when the journal is replayed.
+ */
+public final class LinkJournal {
+
+    private final Logger logger = LoggerFactory.getLogger(LinkJournal.class);
+
+    private static final int MAGIC = 0x4D444C53;
+    private static final int VERSION = 1;
+
+    private static final byte LINK = 1;
+    private static final byte UNLINK = 2;
+    private static final byte COMPACT = 3; // Only queued, never written to the journal
+    private static final int RECORD_SIZE = 1 + 8 + 8 + 8 + 8 + 4; // Operation, sequence, ID, UUID, checksum
+
+    private final File snapshotFile;
+    private final File journalFile;
+
+    private final BlockingQueue<Command> queue;
+    private final Thread writer;
+
+    private FileChannel journal;
+    private LinkIndex state; // The links with every written record applied, only used by the writer thread
+    private long sequence; // Sequence of the last appended record
+    private long records; // Records in the journal since the last compaction
+
+    public LinkJournal(@NonNull File folder, @NonNull String name) {
+        this.snapshotFile = new File(folder, name + ".dat");
+        this.journalFile = new File(folder, name + ".journal");
+        this.queue = new LinkedBlockingQueue<>();
+        this.writer = new Thread(this::write, "LinkJournal");
+        this.writer.setDaemon(true);
+    }
+
+    /**
+     * @return true if neither a snapshot nor a journal exists yet
+     */
+    public boolean isNew() {
+        return !this.snapshotFile.exists() && !this.journalFile.exists();
+    }
+
+    /**
+     * Loads the snapshot, replays the journal on top of it and starts the writer thread
+     * @return the loaded links
+     * @throws IOException when the snapshot can not be read
+     */
+    public LinkIndex load() throws IOException {
+        LinkIndex links = new LinkIndex();
+        long snapshotSequence = 0;
+
+        if (this.snapshotFile.exists()) {
+            try (CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(Files.newInputStream(this.snapshotFile.toPath()), 1 << 16), new CRC32());
+                 DataInputStream input = new DataInputStream(checked)) {
+                if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                    throw new IOException("Unknown snapshot format in " + this.snapshotFile.getName());
+                }
+                snapshotSequence = input.readLong();
+                int size = input.readInt();
+                links = new LinkIndex(size);
+                for (int i = 0; i < size; i++) {
+                    long id = input.readLong();
+                    links.put(id, new UUID(input.readLong(), input.readLong()));
+                }
+                long checksum = checked.getChecksum().getValue();
+                if (input.readLong() != checksum) {
+                    throw new IOException("Snapshot " + this.snapshotFile.getName() + " is corrupted");
+                }
+            }
+        }
+        this.sequence = snapshotSequence;
+
+        this.journal = FileChannel.open(this.journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE, this.journal.size()));
+        while (buffer.hasRemaining() && this.journal.read(buffer) != -1) {
+            // Read the complete journal
+        }
+        buffer.flip();
+
+        CRC32 crc = new CRC32();
+        int replayed = 0;
+        while (buffer.remaining() >= RECORD_SIZE) {
+            int start = buffer.position();
+            crc.reset();
+            crc.update(buffer.array(), start, RECORD_SIZE - 4);
+
+            byte operation = buffer.get();
+            long sequence = buffer.getLong();
+            long id = buffer.getLong();
+            UUID uuid = new UUID(buffer.getLong(), buffer.getLong());
+            if (buffer.getInt() != (int) crc.getValue()) {
+                buffer.position(start);
+                break;
+            }
+
+            this.records++;
+            if (sequence <= snapshotSequence) {
+                continue; // Already part of the snapshot, the journal was not truncated before a crash
+            }
+            if (operation == LINK) {
+                links.put(id, uuid);
+            } else if (operation == UNLINK) {
+                links.removeId(id);
+            }
+            this.sequence = Math.max(this.sequence, sequence);
+            replayed++;
+        }
+
+        if (buffer.position() < this.journal.size()) {
+            logger.warn("Discarding {} bytes of incomplete records at the end of {}", this.journal.size() - buffer.position(), this.journalFile.getName());
+            this.journal.truncate(buffer.position());
+        }
+        this.journal.position(this.journal.size());
+
+        logger.debug("Loaded {} links and replayed {} journal records", links.size(), replayed);
+        this.state = links.copy();
+        this.writer.start();
+        return links;
+    }
+
+    /**
+     * Appends a link, must be called in the same order the change has been applied in memory
+     */
+    public void link(long id, @NonNull UUID uuid) {
+        this.queue.add(new Command(LINK, ++this.sequence, id, uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()));
+        this.records++;
+    }
+
+    /**
+     * Appends an unlink, must be called in the same order the change has been applied in memory
+     */
+    public void unlink(long id) {
+        this.queue.add(new Command(UNLINK, ++this.sequence, id, 0, 0));
+        this.records++;
+    }
+
+    /**
+     * @return the amount of records that would be removed by a compaction
+     */
+    public long getRecords() {
+        return this.records;
+    }
+
+    /**
+     * Queues a compaction, the snapshot contains every change that has been appended before this call
+     */
+    public void compact() {
+        this.queue.add(new Command(COMPACT, this.sequence, 0, 0, 0));
+        this.records = 0;
+    }
+
+    /**
+     * Writes all queued records and stops the writer thread
+     * @param timeout The maximum time in milliseconds to wait
+     */
+    public void close(long timeout) {
+        this.queue.add(Command.STOP);
+        try {
+            this.writer.join(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write() {
+        List<Command> batch = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 256);
+        CRC32 crc = new CRC32();
+
+        while (true) {
+            try {
+                batch.add(this.queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            this.queue.drainTo(batch);
+
+            boolean stop = false;
+            try {
+                for (Command command : batch) {
+                    if (command == Command.STOP) {
+                        stop = true;
+                        break;
+                    }
+                    if (command.operation == COMPACT) {
+                        this.flush(buffer);
+                        this.writeSnapshot(this.state, command.sequence);
+                        continue;
+                    }
+
+                    if (command.operation == LINK) {
+                        this.state.put(command.id, new UUID(command.most, command.least));
+                    } else {
+                        this.state.removeId(command.id);
+                    }
+
+                    if (buffer.remaining() < RECORD_SIZE) {
+                        this.flush(buffer);
+                    }
+                    int start = buffer.position();
+                    buffer.put(command.operation).putLong(command.sequence).putLong(command.id).putLong(command.most).putLong(command.least);
+                    crc.reset();
+                    crc.update(buffer.array(), start, RECORD_SIZE - 4);
+                    buffer.putInt((int) crc.getValue());
+                }
+                this.flush(buffer);
+                this.journal.force(false); // One sync per batch
+            } catch (IOException e) {
+                logger.error("Could not write to {}, recent links might be lost on a crash", this.journalFile.getName(), e);
+                buffer.clear();
+            }
+            batch.clear();
+
+            if (stop) {
+                break;
+            }
+        }
+
+        try {
+            this.journal.close();
+        } catch (IOException e) {
+            logger.warn("Could not close {}", this.journalFile.getName(), e);
+        }
+    }
+
+    private void flush(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            this.journal.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void writeSnapshot(LinkIndex links, long sequence) throws IOException {
+        long start = System.currentTimeMillis();
+        File temporary = new File(this.snapshotFile.getParentFile(), this.snapshotFile.getName() + ".tmp");
+
+        try (FileOutputStream stream = new FileOutputStream(temporary)) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(stream, 1 << 16), new CRC32());
+            DataOutputStream output = new DataOutputStream(checked);
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(sequence);
+            output.writeInt(links.size());
+            IOException[] exception = new IOException[1];
+            links.forEach((uuid, id) -> {
+                try {
+                    output.writeLong(id);
+                    output.writeLong(uuid.getMostSignificantBits());
+                    output.writeLong(uuid.getLeastSignificantBits());
+                } catch (IOException e) {
+                    exception[0] = e;
+                }
+            });
+            if (exception[0] != null) {
+                throw exception[0];
+            }
+            output.writeLong(checked.getChecksum().getValue());
+            output.flush();
+            stream.getFD().sync();
+        }
+
+        Files.move(temporary.toPath(), this.snapshotFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        // Records up to this sequence are now part of the snapshot and are skipped on replay, even if truncating fails
+        this.journal.truncate(0);
+        this.journal.force(true);
+        logger.debug("Compacted {} links in {}ms", links.size(), System.currentTimeMillis() - start);
+    }
+
+    private static final class Command {
+
+        private static final Command STOP = new Command((byte) 0, 0, 0, 0, 0);
+
+        private final byte operation;
+        private final long sequence;
+        private final long id;
+        private final long most;
+        private final long least;
+
+        private Command(byte operation, long sequence, long id, long most, long least) {
+            this.operation = operation;
+            this.sequence = sequence;
+            this.id = id;
+            this.most = most;
+            this.least = least;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ *     This file is part of MinecraftDiscord.
+ *
+ *     MinecraftDiscord is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     MinecraftDiscord is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with MinecraftDiscord.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.jordieh.minecraftdiscord.storage;
+
+import io.github.jordieh.minecraftdiscord.common.LinkIndex;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Persistent storage of the links between Discord users and Minecraft players.
+ * A Discord user can only be linked to a single player and the other way around.
+ * Implementations are thread-safe.
+ */
+public interface LinkStore {
+
+    /**
+     * @param id The Discord user ID
+     * @return the linked UUID, or null if the user is not linked
+     */
+    UUID getUuid(long id);
+
+    /**
+     * @param uuid The Minecraft UUID
+     * @return the linked Discord user ID, or {@link LinkIndex#NONE} if the player is not linked
+     */
+    long getId(UUID uuid);
+
+    /**
+     * @param ids The Discord user IDs
+     * @return the linked UUIDs by Discord ID, users that are not linked are left out
+     */
+    default Map<Long, UUID> getUuids(Collection<Long> ids) {
+        Map<Long, UUID> uuids = new HashMap<>();
+        for (long id : ids) {
+            UUID uuid = this.getUuid(id);
+            if (uuid != null) {
+                uuids.put(id, uuid);
+            }
+        }
+        return uuids;
+    }
+
+    /**
+     * @param uuids The Minecraft UUIDs
+     * @return the linked Discord user IDs by UUID, players that are not linked are left out
+     */
+    default Map<UUID, Long> getIds(Collection<UUID> uuids) {
+        Map<UUID, Long> ids = new HashMap<>();
+        for (UUID uuid : uuids) {
+            long id = this.getId(uuid);
+            if (id != LinkIndex.NONE) {
+                ids.put(uuid, id);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Keeps the link of a player in memory until it is released, so lookups of online players never have to wait
+     * for the storage. Stores that keep every link in memory do not have to do anything.
+     * @param uuid The player that joined
+     */
+    default void retain(UUID uuid) {
+    }
+
+    /**
+     * @param uuid The player that quit
+     */
+    default void release(UUID uuid) {
+    }
+
+    /**
+     * Links the user to the player, existing links of either side are removed
+     */
+    void link(long id, UUID uuid);
+
+    /**
+     * @return the UUID that was linked to the user, or null if the user was not linked
+     */
+    UUID unlink(long id);
+
+    /**
+     * @return the ID that was linked to the player, or {@link LinkIndex#NONE} if the player was not linked
+     */
+    long unlink(UUID uuid);
+
+    /**
+     * Visits every link, this might have to read the complete storage
+     */
+    void forEach(ObjLongConsumer<UUID> consumer);
+
+    /**
+     * Persists all pending changes and releases the storage
+     */
+    void close();
+}
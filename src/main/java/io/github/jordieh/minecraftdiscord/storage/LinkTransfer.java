@@ -0,0 +1,213 @@
+/*
+ *     This file is part of MinecraftDiscord.
+ *
+ *     MinecraftDiscord is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     MinecraftDiscord is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with MinecraftDiscord.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.jordieh.minecraftdiscord.storage;
+
+import io.github.jordieh.minecraftdiscord.common.LinkIndex;
+import lombok.Getter;
+import lombok.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Streams links between a {@link LinkStore} and a CSV ({@code id,uuid}, with an optional {@code id,uuid} header) or JSON lines ({@code {"id":"..","uuid":".."}}) file.
+ * Imports are read and applied in batches, so only one batch is held in memory regardless of the size of the file.
+ */
+public final class LinkTransfer {
+
+    private static final Logger logger = LoggerFactory.getLogger(LinkTransfer.class);
+
+    private static final int BATCH_SIZE = 1000;
+    private static final int PROGRESS_INTERVAL = 10000; // Lines between progress reports
+
+    private static final Pattern CSV_HEADER = Pattern.compile("(?i)(id\\s*[,;]\\s*uuid|uuid\\s*[,;]\\s*id)\\b.*");
+    private static final int REPORTED_LINES = 10; // Invalid lines that are logged per import
+    private static final Pattern JSON_ID = Pattern.compile("\"id\"\\s*:\\s*\"?(\\d+)\"?");
+    private static final Pattern JSON_UUID = Pattern.compile("\"uuid\"\\s*:\\s*\"([0-9a-fA-F-]+)\"");
+
+    private LinkTransfer() {
+    }
+
+    /**
+     * Imports every link of a file
+     * @param store The store to link the accounts in
+     * @param file A .csv file, or a JSON lines file
+     * @param overwrite Whether existing links of either side are replaced, otherwise the line is skipped
+     * @param progress Called every {@value #PROGRESS_INTERVAL} lines
+     * @return the amount of lines per outcome
+     */
+    public static Result importLinks(@NonNull LinkStore store, @NonNull File file, boolean overwrite,
+                                     @NonNull Progress progress) throws IOException {
+        boolean csv = isCsv(file);
+        Result result = new Result();
+        List<Link> batch = new ArrayList<>(BATCH_SIZE);
+        boolean header = false;
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                if (csv && result.lines == 0 && !header && CSV_HEADER.matcher(line).matches()) {
+                    header = true; // Only an explicit header is skipped, any other invalid line is reported
+                    continue;
+                }
+                Link link = csv ? parseCsv(line) : parseJson(line);
+                result.lines++;
+
+                if (link == null) {
+                    if (++result.invalid <= REPORTED_LINES) {
+                        logger.warn("Ignoring invalid link on line {} of {}: {}", result.lines, file.getName(), line);
+                    }
+                } else {
+                    batch.add(link);
+                }
+                if (batch.size() == BATCH_SIZE) {
+                    apply(store, batch, overwrite, result);
+                }
+                if (result.lines % PROGRESS_INTERVAL == 0) {
+                    progress.report(result);
+                }
+            }
+        }
+        apply(store, batch, overwrite, result);
+        return result;
+    }
+
+    private static void apply(LinkStore store, List<Link> batch, boolean overwrite, Result result) {
+        for (Link link : batch) {
+            UUID currentUuid = store.getUuid(link.id);
+            if (link.uuid.equals(currentUuid)) {
+                result.unchanged++; // Duplicates, within the file or of existing links
+                continue;
+            }
+            if (currentUuid != null || store.getId(link.uuid) != LinkIndex.NONE) {
+                result.conflicts++;
+                if (!overwrite) {
+                    continue;
+                }
+            }
+            store.link(link.id, link.uuid);
+            result.linked++;
+        }
+        batch.clear();
+    }
+
+    /**
+     * Writes every link of a store to a file
+     * @param store The store to read
+     * @param file A .csv file, or a JSON lines file
+     * @param progress Called every {@value #PROGRESS_INTERVAL} links
+     * @return the amount of links that have been written
+     */
+    public static long exportLinks(@NonNull LinkStore store, @NonNull File file, @NonNull Progress progress) throws IOException {
+        boolean csv = isCsv(file);
+        Result result = new Result();
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            if (csv) {
+                writer.write("id,uuid");
+                writer.newLine();
+            }
+            store.forEach((uuid, id) -> {
+                try {
+                    writer.write(csv ? id + "," + uuid : "{\"id\":\"" + id + "\",\"uuid\":\"" + uuid + "\"}");
+                    writer.newLine();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (++result.lines % PROGRESS_INTERVAL == 0) {
+                    progress.report(result);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return result.lines;
+    }
+
+    private static boolean isCsv(File file) {
+        return file.getName().toLowerCase().endsWith(".csv");
+    }
+
+    /**
+     * Accepts both id,uuid and uuid,id
+     */
+    private static Link parseCsv(String line) {
+        String[] columns = line.split("[,;]");
+        if (columns.length < 2) {
+            return null;
+        }
+        String first = columns[0].trim();
+        String second = columns[1].trim();
+        return first.contains("-") ? parse(second, first) : parse(first, second);
+    }
+
+    private static Link parseJson(String line) {
+        Matcher id = JSON_ID.matcher(line);
+        Matcher uuid = JSON_UUID.matcher(line);
+        return id.find() && uuid.find() ? parse(id.group(1), uuid.group(1)) : null;
+    }
+
+    private static Link parse(String id, String uuid) {
+        try {
+            long value = Long.parseLong(id);
+            return value == LinkIndex.NONE ? null : new Link(value, UUID.fromString(uuid));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @Getter
+    public static final class Result {
+
+        private long lines;
+        private long linked;
+        private long unchanged;
+        private long conflicts; // Skipped, or overwritten if linked
+        private long invalid;
+    }
+
+    public interface Progress {
+
+        void report(Result result);
+    }
+
+    private static final class Link {
+
+        private final long id;
+        private final UUID uuid;
+
+        private Link(long id, UUID uuid) {
+            this.id = id;
+            this.uuid = uuid;
+        }
+    }
+}
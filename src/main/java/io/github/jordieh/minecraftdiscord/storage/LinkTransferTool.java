@@ -0,0 +1,90 @@
+/*
+ *     This file is part of MinecraftDiscord.
+ *
+ *     MinecraftDiscord is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     MinecraftDiscord is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with MinecraftDiscord.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.jordieh.minecraftdiscord.storage;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Imports or exports links while the server is stopped, for example to migrate a community or to switch storage types.
+ * The server jar has to be on the classpath, it provides the SQLite driver and the Bukkit classes:
+ * <pre>java -cp spigot.jar:plugins/MinecraftDiscord.jar io.github.jordieh.minecraftdiscord.storage.LinkTransferTool
+ *     import file plugins/MinecraftDiscord links.csv --overwrite</pre>
+ */
+public final class LinkTransferTool {
+
+    private static final String USAGE = "Usage: LinkTransferTool <import|export> <file|sqlite> <data folder|database file> <links file> [--overwrite]";
+
+    private LinkTransferTool() {
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 4 || !(args[0].equalsIgnoreCase("import") || args[0].equalsIgnoreCase("export"))) {
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        boolean importing = args[0].equalsIgnoreCase("import");
+        boolean overwrite = args.length > 4 && args[4].equalsIgnoreCase("--overwrite");
+        File storage = new File(args[2]);
+        File file = new File(args[3]);
+
+        LinkStore store;
+        try {
+            switch (args[1].toLowerCase()) {
+                case "file":
+                    store = new FileLinkStore(storage, false);
+                    break;
+                case "sqlite":
+                    store = new SqlLinkStore(storage, 1, 1000);
+                    break;
+                default:
+                    System.err.println(USAGE);
+                    System.exit(2);
+                    return;
+            }
+        } catch (IOException e) {
+            System.err.println("Could not open the link storage: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        int status = 0;
+        try {
+            if (importing) {
+                LinkTransfer.Result result = LinkTransfer.importLinks(store, file, overwrite,
+                        progress -> System.out.println("Read " + progress.getLines() + " lines"));
+                System.out.println(String.format("Imported %s: %d linked, %d unchanged, %d conflicts (%s), %d invalid in %d ms",
+                        file.getName(), result.getLinked(), result.getUnchanged(), result.getConflicts(),
+                        overwrite ? "overwritten" : "skipped", result.getInvalid(), System.currentTimeMillis() - start));
+            } else {
+                long links = LinkTransfer.exportLinks(store, file,
+                        progress -> System.out.println("Wrote " + progress.getLines() + " links"));
+                System.out.println(String.format("Exported %d links to %s in %d ms", links, file.getName(), System.currentTimeMillis() - start));
+            }
+        } catch (IOException e) {
+            System.err.println("Could not " + args[0].toLowerCase() + " " + file.getName() + ": " + e.getMessage());
+            status = 1;
+        } finally {
+            store.close(); // Commits the remaining changes
+        }
+        System.exit(status);
+    }
+}
@@ -0,0 +1,795 @@
+/*
+ *     This file is part of MinecraftDiscord.
+ *
+ *     MinecraftDiscord is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     MinecraftDiscord is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with MinecraftDiscord.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.jordieh.minecraftdiscord.storage;
+
+import io.github.jordieh.minecraftdiscord.common.LinkIndex;
+import lombok.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Stores the links in an SQL database, an embedded SQLite file or a MySQL server shared by several servers,
+ * so the amount of links does not affect the heap or the startup time.
+ * Lookups go through a bounded LRU cache that also remembers players and users that are not linked.
+ * Retained (online) players are never evicted from it. On a thread that must not block, such as the main thread,
+ * a lookup that misses the cache is answered as not linked and loaded in the background instead of waiting for the database.
+ * Writes are applied to the cache right away and executed in batches by a single writer thread,
+ * until a write has been committed its values are pinned so lookups never read outdated rows.
+ * Failed batches are retried in order, before any later write. After {@value #MAX_ATTEMPTS} attempts, or once
+ * {@value #MAX_PENDING} changes are waiting, the changes are given up and logged so they can be restored by hand.
+ * When the database is shared, a {@link LinkCoordinator} evicts the links other servers changed from the cache.
+ */
+public final class SqlLinkStore implements LinkStore, LinkCoordinator.Listener {
+
+    private final Logger logger = LoggerFactory.getLogger(SqlLinkStore.class);
+
+    private static final UUID UNLINKED = new UUID(0, 0); // Cached for users that are not linked
+    private static final long CONNECTION_TIMEOUT = 5000L; // Milliseconds
+    private static final int BATCH_SIZE = 250; // Keys per bulk query
+    private static final long RETRY_DELAY = 5000L; // Milliseconds between attempts to write a failed batch
+    private static final int MAX_ATTEMPTS = 60; // Attempts before the changes of a failed batch are given up
+    private static final int MAX_PENDING = 10000; // Changes that can wait for the database before they are given up
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final boolean sqlite;
+
+    private final BlockingQueue<Connection> pool; // Connections for lookups
+    private final List<Connection> connections;
+    private Connection writeConnection; // Only used by the writer thread
+
+    private final Map<Long, UUID> uuids; // Discord ID -> UUID cache
+    private final Map<UUID, Long> ids; // UUID -> Discord ID cache
+    private final Map<Long, Pin<UUID>> pendingUuids; // Values of uncommitted writes
+    private final Map<UUID, Pin<Long>> pendingIds; // Values of uncommitted writes
+    private final Set<UUID> residents; // Players whose link is never evicted, guarded by this
+    private long version; // Sequence of the last write, guarded by this
+
+    private volatile BooleanSupplier nonBlocking = () -> false; // Whether the calling thread must not wait for the database
+    private final Set<Object> loading; // Keys that are being loaded in the background
+    private final ExecutorService loader;
+
+    private final Object writeLock = new Object();
+    private final BlockingQueue<Write> queue;
+    private final Thread writer;
+    private volatile LinkCoordinator coordinator;
+
+    public SqlLinkStore(@NonNull File file, int poolSize, int cacheSize) throws IOException {
+        this("jdbc:sqlite:" + file.getAbsolutePath(), null, null, poolSize, cacheSize);
+    }
+
+    public SqlLinkStore(@NonNull String url, String username, String password, int poolSize, int cacheSize) throws IOException {
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.sqlite = url.startsWith("jdbc:sqlite:");
+        if (this.sqlite) {
+            try {
+                Class.forName("org.sqlite.JDBC");
+            } catch (ClassNotFoundException e) {
+                throw new IOException("The SQLite driver is not available on this server", e);
+            }
+        }
+
+        String type = this.sqlite ? "INTEGER" : "BIGINT"; // INTEGER PRIMARY KEY is the row id in SQLite
+        this.connections = new CopyOnWriteArrayList<>();
+        this.pool = new ArrayBlockingQueue<>(Math.max(1, poolSize));
+        try {
+            this.writeConnection = this.open();
+            try (Statement statement = this.writeConnection.createStatement()) {
+                statement.executeUpdate("CREATE TABLE IF NOT EXISTS links (" +
+                        "id " + type + " PRIMARY KEY, " +
+                        "most " + type + " NOT NULL, " +
+                        "least " + type + " NOT NULL, " +
+                        "UNIQUE (most, least))");
+            }
+            this.writeConnection.setAutoCommit(false);
+
+            for (int i = 0; i < Math.max(1, poolSize); i++) {
+                this.pool.add(this.open());
+            }
+        } catch (SQLException e) {
+            this.closeConnections();
+            throw new IOException("Could not open the link database", e);
+        }
+
+        int size = Math.max(16, cacheSize);
+        this.uuids = new LinkedHashMap<Long, UUID>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, UUID> eldest) {
+                return size() > size;
+            }
+        };
+        this.residents = new HashSet<>();
+        this.ids = new LinkedHashMap<UUID, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, Long> eldest) {
+                if (size() <= size) {
+                    return false;
+                }
+                Iterator<UUID> iterator = keySet().iterator(); // Least recently used first
+                while (iterator.hasNext()) {
+                    if (!residents.contains(iterator.next())) {
+                        iterator.remove();
+                        break;
+                    }
+                }
+                return false;
+            }
+        };
+        this.pendingUuids = new HashMap<>();
+        this.pendingIds = new HashMap<>();
+
+        this.loading = ConcurrentHashMap.newKeySet();
+        this.loader = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "SqlLinkStore-Lookup");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.queue = new LinkedBlockingQueue<>();
+        this.writer = new Thread(this::write, "SqlLinkStore");
+        this.writer.setDaemon(true);
+        this.writer.start();
+
+        logger.debug("Opened the link database with {} connections and a cache of {} links", this.connections.size(), size);
+    }
+
+    private Connection open() throws SQLException {
+        Connection connection = DriverManager.getConnection(this.url, this.username, this.password);
+        this.connections.add(connection);
+        if (this.sqlite) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("PRAGMA journal_mode=WAL"); // Readers do not block the writer
+                statement.execute("PRAGMA synchronous=NORMAL");
+                statement.execute("PRAGMA busy_timeout=" + CONNECTION_TIMEOUT);
+            }
+        }
+        return connection;
+    }
+
+    /**
+     * Replaces a connection the database server has closed, SQLite connections never need to be replaced
+     */
+    private Connection validate(Connection connection) throws SQLException {
+        if (this.sqlite || connection.isValid((int) (CONNECTION_TIMEOUT / 1000L))) {
+            return connection;
+        }
+        logger.debug("Replacing a closed database connection");
+        this.connections.remove(connection);
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+        }
+        return this.open();
+    }
+
+    /**
+     * Publishes every committed change to the other servers, which evict it from their cache
+     * @param coordinator The coordinator that connects the servers sharing this database
+     */
+    public void setCoordinator(LinkCoordinator coordinator) {
+        this.coordinator = coordinator;
+    }
+
+    /**
+     * @param nonBlocking Whether the calling thread must not wait for the database, lookups that miss the cache on
+     *                    such a thread are answered as not linked and loaded in the background
+     */
+    public void setNonBlocking(@NonNull BooleanSupplier nonBlocking) {
+        this.nonBlocking = nonBlocking;
+    }
+
+    /**
+     * Keeps the link of a player in the cache until it is released, loading it if it is not cached yet.
+     * On a thread that must not block the link is loaded in the background.
+     */
+    @Override
+    public void retain(@NonNull UUID uuid) {
+        synchronized (this) {
+            this.residents.add(uuid);
+        }
+        this.getId(uuid);
+    }
+
+    @Override
+    public synchronized void release(@NonNull UUID uuid) {
+        this.residents.remove(uuid);
+    }
+
+    @Override
+    public synchronized void invalidate(long id, @NonNull UUID uuid) {
+        this.version++; // Lookups that are still running might have read the old row
+        // The previous partners of both sides changed as well, they are found through the cached values
+        this.uuids.entrySet().removeIf(e -> e.getKey() == id || e.getValue().equals(uuid));
+        List<UUID> reload = new ArrayList<>();
+        this.ids.entrySet().removeIf(e -> {
+            boolean stale = e.getKey().equals(uuid) || e.getValue() == id;
+            if (stale && this.residents.contains(e.getKey())) {
+                reload.add(e.getKey());
+            }
+            return stale;
+        });
+        if (this.residents.contains(uuid) && !reload.contains(uuid)) {
+            reload.add(uuid);
+        }
+        reload.forEach(this::loadLater); // Retained players are cached again right away
+    }
+
+    @Override
+    public synchronized void invalidateAll() {
+        this.version++;
+        this.uuids.clear();
+        this.ids.clear();
+        this.residents.forEach(this::loadLater);
+    }
+
+    @Override
+    public UUID getUuid(long id) {
+        return this.getUuid(id, !this.nonBlocking.getAsBoolean());
+    }
+
+    private UUID getUuid(long id, boolean block) {
+        long version;
+        synchronized (this) {
+            Pin<UUID> pin = this.pendingUuids.get(id);
+            UUID uuid = pin == null ? this.uuids.get(id) : pin.value;
+            if (uuid != null) {
+                return uuid == UNLINKED ? null : uuid;
+            }
+            version = this.version;
+        }
+        if (!block) {
+            this.loadLater(id);
+            return null;
+        }
+
+        UUID uuid = this.query("SELECT most, least FROM links WHERE id = ?", statement -> statement.setLong(1, id),
+                result -> new UUID(result.getLong(1), result.getLong(2)));
+        synchronized (this) {
+            if (this.version == version) { // Only cache the result if nothing has been written in the meantime
+                this.uuids.put(id, uuid == null ? UNLINKED : uuid);
+            }
+        }
+        return uuid;
+    }
+
+    @Override
+    public long getId(@NonNull UUID uuid) {
+        return this.getId(uuid, !this.nonBlocking.getAsBoolean());
+    }
+
+    private long getId(UUID uuid, boolean block) {
+        long version;
+        synchronized (this) {
+            Pin<Long> pin = this.pendingIds.get(uuid);
+            Long id = pin == null ? this.ids.get(uuid) : pin.value;
+            if (id != null) {
+                return id;
+            }
+            version = this.version;
+        }
+        if (!block) {
+            this.loadLater(uuid);
+            return LinkIndex.NONE;
+        }
+
+        Long id = this.query("SELECT id FROM links WHERE most = ? AND least = ?", statement -> {
+            statement.setLong(1, uuid.getMostSignificantBits());
+            statement.setLong(2, uuid.getLeastSignificantBits());
+        }, result -> result.getLong(1));
+        long value = id == null ? LinkIndex.NONE : id;
+        synchronized (this) {
+            if (this.version == version) {
+                this.ids.put(uuid, value);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Loads a key that missed the cache on a thread that must not block, so the next lookup finds it
+     * @param key The Discord user ID or the UUID
+     */
+    private void loadLater(Object key) {
+        if (!this.loading.add(key)) {
+            return; // Already being loaded
+        }
+        try {
+            this.loader.execute(() -> {
+                try {
+                    if (key instanceof UUID) {
+                        this.getId((UUID) key, true);
+                    } else {
+                        this.getUuid((Long) key, true);
+                    }
+                } finally {
+                    this.loading.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.loading.remove(key); // The store has been closed
+        }
+    }
+
+    /**
+     * Serves cached users from memory and looks up the others with one query per {@value #BATCH_SIZE} users
+     */
+    @Override
+    public Map<Long, UUID> getUuids(@NonNull Collection<Long> ids) {
+        Map<Long, UUID> result = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        long version;
+        synchronized (this) {
+            for (long id : ids) {
+                Pin<UUID> pin = this.pendingUuids.get(id);
+                UUID uuid = pin == null ? this.uuids.get(id) : pin.value;
+                if (uuid == null) {
+                    missing.add(id);
+                } else if (uuid != UNLINKED) {
+                    result.put(id, uuid);
+                }
+            }
+            version = this.version;
+        }
+
+        for (int i = 0; i < missing.size(); i += BATCH_SIZE) {
+            List<Long> batch = missing.subList(i, Math.min(missing.size(), i + BATCH_SIZE));
+            Map<Long, UUID> found = new HashMap<>();
+            String sql = "SELECT id, most, least FROM links WHERE id IN (" + String.join(", ", Collections.nCopies(batch.size(), "?")) + ")";
+            boolean complete = this.queryAll(sql, statement -> {
+                for (int j = 0; j < batch.size(); j++) {
+                    statement.setLong(j + 1, batch.get(j));
+                }
+            }, row -> found.put(row.getLong(1), new UUID(row.getLong(2), row.getLong(3))));
+            synchronized (this) {
+                if (complete && this.version == version) {
+                    batch.forEach(id -> this.uuids.put(id, found.getOrDefault(id, UNLINKED)));
+                }
+            }
+            result.putAll(found);
+        }
+        return result;
+    }
+
+    /**
+     * Serves cached players from memory and looks up the others with one query per {@value #BATCH_SIZE} players
+     */
+    @Override
+    public Map<UUID, Long> getIds(@NonNull Collection<UUID> uuids) {
+        Map<UUID, Long> result = new HashMap<>();
+        List<UUID> missing = new ArrayList<>();
+        long version;
+        synchronized (this) {
+            for (UUID uuid : uuids) {
+                Pin<Long> pin = this.pendingIds.get(uuid);
+                Long id = pin == null ? this.ids.get(uuid) : pin.value;
+                if (id == null) {
+                    missing.add(uuid);
+                } else if (id != LinkIndex.NONE) {
+                    result.put(uuid, id);
+                }
+            }
+            version = this.version;
+        }
+
+        for (int i = 0; i < missing.size(); i += BATCH_SIZE) {
+            List<UUID> batch = missing.subList(i, Math.min(missing.size(), i + BATCH_SIZE));
+            Map<UUID, Long> found = new HashMap<>();
+            String sql = "SELECT id, most, least FROM links WHERE " + String.join(" OR ", Collections.nCopies(batch.size(), "(most = ? AND least = ?)"));
+            boolean complete = this.queryAll(sql, statement -> {
+                for (int j = 0; j < batch.size(); j++) {
+                    statement.setLong(j * 2 + 1, batch.get(j).getMostSignificantBits());
+                    statement.setLong(j * 2 + 2, batch.get(j).getLeastSignificantBits());
+                }
+            }, row -> found.put(new UUID(row.getLong(2), row.getLong(3)), row.getLong(1)));
+            synchronized (this) {
+                if (complete && this.version == version) {
+                    batch.forEach(uuid -> this.ids.put(uuid, found.getOrDefault(uuid, LinkIndex.NONE)));
+                }
+            }
+            result.putAll(found);
+        }
+        return result;
+    }
+
+    @Override
+    public void link(long id, @NonNull UUID uuid) {
+        synchronized (this.writeLock) {
+            // The previous links have to be known, so these lookups wait for the database if they are not cached
+            UUID previousUuid = this.getUuid(id, true);
+            long previousId = this.getId(uuid, true);
+            synchronized (this) {
+                this.version++;
+                if (previousUuid != null && !previousUuid.equals(uuid)) {
+                    this.put(previousUuid, LinkIndex.NONE);
+                }
+                if (previousId != LinkIndex.NONE && previousId != id) {
+                    this.put(previousId, UNLINKED);
+                }
+                this.put(id, uuid);
+                this.put(uuid, id);
+                this.queue.add(new Write(this.version, id, uuid, true, null));
+            }
+        }
+    }
+
+    @Override
+    public UUID unlink(long id) {
+        synchronized (this.writeLock) {
+            UUID uuid = this.getUuid(id, true);
+            if (uuid == null) {
+                return null;
+            }
+            this.remove(id, uuid);
+            return uuid;
+        }
+    }
+
+    @Override
+    public long unlink(@NonNull UUID uuid) {
+        synchronized (this.writeLock) {
+            long id = this.getId(uuid, true);
+            if (id == LinkIndex.NONE) {
+                return LinkIndex.NONE;
+            }
+            this.remove(id, uuid);
+            return id;
+        }
+    }
+
+    private synchronized void remove(long id, UUID uuid) {
+        this.version++;
+        this.put(id, UNLINKED);
+        this.put(uuid, LinkIndex.NONE);
+        this.queue.add(new Write(this.version, id, uuid, false, null));
+    }
+
+    private void put(long id, UUID uuid) {
+        this.pendingUuids.put(id, new Pin<>(uuid, this.version));
+        this.uuids.put(id, uuid);
+    }
+
+    private void put(UUID uuid, long id) {
+        this.pendingIds.put(uuid, new Pin<>(id, this.version));
+        this.ids.put(uuid, id);
+    }
+
+    /**
+     * Waits for all pending writes and reads every link from the database
+     */
+    @Override
+    public void forEach(@NonNull ObjLongConsumer<UUID> consumer) {
+        this.flush();
+        Connection connection = this.borrow();
+        if (connection == null) {
+            return;
+        }
+        try (Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery("SELECT id, most, least FROM links")) {
+            while (result.next()) {
+                consumer.accept(new UUID(result.getLong(2), result.getLong(3)), result.getLong(1));
+            }
+        } catch (SQLException e) {
+            logger.error("Could not read the linked accounts", e);
+        } finally {
+            this.pool.add(connection);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.loader.shutdownNow();
+        this.queue.add(Write.STOP);
+        try {
+            this.writer.join(10000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        LinkCoordinator coordinator = this.coordinator;
+        if (coordinator != null) {
+            coordinator.close(); // After the writer, so the last changes are still published
+        }
+        this.closeConnections();
+    }
+
+    private void flush() {
+        CountDownLatch latch = new CountDownLatch(1);
+        this.queue.add(new Write(0, LinkIndex.NONE, null, false, latch));
+        try {
+            latch.await(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write() {
+        List<Write> batch = new ArrayList<>(); // Starts with the writes of a failed batch, if any
+        int attempts = 0;
+        while (true) {
+            try {
+                if (batch.isEmpty()) {
+                    batch.add(this.queue.take());
+                } else {
+                    Write write = this.queue.poll(RETRY_DELAY, TimeUnit.MILLISECONDS);
+                    if (write != null) {
+                        batch.add(write);
+                    }
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+            this.queue.drainTo(batch);
+
+            boolean stop = batch.contains(Write.STOP); // Also when a change before it fails
+            long sequence = 0;
+            long committed = 0;
+            boolean failed = false;
+            try {
+                Connection connection = this.validate(this.writeConnection);
+                if (connection != this.writeConnection) {
+                    connection.setAutoCommit(false);
+                    this.writeConnection = connection;
+                }
+            } catch (SQLException e) {
+                logger.error("Could not reconnect to the link database", e);
+            }
+            try (PreparedStatement replace = this.writeConnection.prepareStatement("DELETE FROM links WHERE id = ? OR (most = ? AND least = ?)");
+                 PreparedStatement insert = this.writeConnection.prepareStatement("INSERT INTO links (id, most, least) VALUES (?, ?, ?)");
+                 PreparedStatement delete = this.writeConnection.prepareStatement("DELETE FROM links WHERE id = ?")) {
+                for (Write write : batch) {
+                    if (write == Write.STOP) {
+                        break;
+                    }
+                    if (write.latch != null) {
+                        continue;
+                    }
+
+                    sequence = write.sequence;
+                    if (!write.link) {
+                        delete.setLong(1, write.id);
+                        delete.executeUpdate();
+                        continue;
+                    }
+                    replace.setLong(1, write.id);
+                    replace.setLong(2, write.uuid.getMostSignificantBits());
+                    replace.setLong(3, write.uuid.getLeastSignificantBits());
+                    replace.executeUpdate();
+                    insert.setLong(1, write.id);
+                    insert.setLong(2, write.uuid.getMostSignificantBits());
+                    insert.setLong(3, write.uuid.getLeastSignificantBits());
+                    insert.executeUpdate();
+                }
+                this.writeConnection.commit(); // One transaction per batch
+                committed = sequence;
+            } catch (SQLException e) {
+                // The changes stay pinned in memory and are retried, later writes are not committed before them
+                logger.error("Could not write {} link changes to the database, retrying", batch.stream().filter(w -> w.uuid != null).count(), e);
+                failed = true;
+                try {
+                    this.writeConnection.rollback();
+                } catch (SQLException ex) {
+                    logger.warn("Could not roll back the failed link changes", ex);
+                }
+            }
+
+            synchronized (this) {
+                // Writes are committed in order, so every value up to this sequence is now in the database
+                long sequenceCommitted = committed;
+                this.pendingUuids.values().removeIf(pin -> pin.sequence <= sequenceCommitted);
+                this.pendingIds.values().removeIf(pin -> pin.sequence <= sequenceCommitted);
+            }
+            LinkCoordinator coordinator = this.coordinator;
+            if (coordinator != null && committed != 0) {
+                // Only published after the commit, so other servers read the new rows when they look them up again
+                batch.stream().filter(w -> w.uuid != null).forEach(w -> coordinator.publish(w.id, w.uuid));
+            }
+            batch.stream().filter(w -> w.latch != null).forEach(w -> w.latch.countDown());
+            if (failed) {
+                batch.removeIf(w -> w.latch != null || w == Write.STOP); // Only the changes are retried
+                if (++attempts >= MAX_ATTEMPTS || batch.size() >= MAX_PENDING) {
+                    this.giveUp(batch, attempts);
+                    attempts = 0;
+                }
+            } else {
+                batch.clear();
+                attempts = 0;
+            }
+
+            if (stop) {
+                if (!batch.isEmpty()) {
+                    this.giveUp(batch, attempts);
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * Drops changes that could not be written, so they no longer hold memory or hide the rows in the database.
+     * Every change is logged, so it can be applied again once the database is available.
+     */
+    private void giveUp(List<Write> batch, int attempts) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        logger.error("\n#############################################\n" +
+                "# Link changes could not be saved           #\n" +
+                "# {} changes are lost after {} attempts\n" +
+                "# Check the database and restore them below #\n" +
+                "#############################################", batch.size(), attempts);
+        for (Write write : batch) {
+            logger.error("Lost link change: {} {} {}", write.link ? "link" : "unlink", write.id, write.uuid);
+        }
+
+        long sequence = batch.get(batch.size() - 1).sequence;
+        synchronized (this) {
+            this.pendingUuids.values().removeIf(pin -> pin.sequence <= sequence);
+            this.pendingIds.values().removeIf(pin -> pin.sequence <= sequence);
+        }
+        this.invalidateAll(); // The cache holds the lost values, they are read from the database again
+        batch.clear();
+    }
+
+    private <T> T query(String sql, Parameters parameters, Row<T> row) {
+        Connection connection = this.borrow();
+        if (connection == null) {
+            return null;
+        }
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            parameters.set(statement);
+            try (ResultSet result = statement.executeQuery()) {
+                return result.next() ? row.read(result) : null;
+            }
+        } catch (SQLException e) {
+            logger.error("Could not look up a linked account", e);
+            return null;
+        } finally {
+            this.pool.add(connection);
+        }
+    }
+
+    /**
+     * @return false if the query failed, so the absence of a row does not mean the key is not linked
+     */
+    private boolean queryAll(String sql, Parameters parameters, Rows rows) {
+        Connection connection = this.borrow();
+        if (connection == null) {
+            return false;
+        }
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            parameters.set(statement);
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                    rows.accept(result);
+                }
+                return true;
+            }
+        } catch (SQLException e) {
+            logger.error("Could not look up the linked accounts", e);
+            return false;
+        } finally {
+            this.pool.add(connection);
+        }
+    }
+
+    private Connection borrow() {
+        try {
+            Connection connection = this.pool.poll(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS);
+            if (connection == null) {
+                logger.warn("Timed out while waiting for a database connection");
+                return null;
+            }
+            try {
+                return this.validate(connection);
+            } catch (SQLException e) {
+                logger.error("Could not reconnect to the link database", e);
+                this.pool.add(connection);
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private void closeConnections() {
+        for (Connection connection : this.connections) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                logger.warn("Could not close a database connection", e);
+            }
+        }
+    }
+
+    private interface Parameters {
+        void set(PreparedStatement statement) throws SQLException;
+    }
+
+    private interface Row<T> {
+        T read(ResultSet result) throws SQLException;
+    }
+
+    private interface Rows {
+        void accept(ResultSet result) throws SQLException;
+    }
+
+    private static final class Pin<T> {
+
+        private final T value;
+        private final long sequence;
+
+        private Pin(T value, long sequence) {
+            this.value = value;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final class Write {
+
+        private static final Write STOP = new Write(0, LinkIndex.NONE, null, false, null);
+
+        private final long sequence;
+        private final long id;
+        private final UUID uuid;
+        private final boolean link; // False to unlink
+        private final CountDownLatch latch; // Only set for flushes
+
+        private Write(long sequence, long id, UUID uuid, boolean link, CountDownLatch latch) {
+            this.sequence = sequence;
+            this.id = id;
+            this.uuid = uuid;
+            this.link = link;
+            this.latch = latch;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ *     This file is part of MinecraftDiscord.
+ *
+ *     MinecraftDiscord is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     MinecraftDiscord is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with MinecraftDiscord.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.jordieh.minecraftdiscord.storage;
+
+import io.github.jordieh.minecraftdiscord.common.LinkIndex;
+import io.github.jordieh.minecraftdiscord.configuration.PluginConfiguration;
+import lombok.NonNull;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Keeps all links in memory and writes them to accounts.yml when the plugin is disabled.
+ * Links made since the last shutdown are lost on a crash, prefer the file store.
+ */
+public final class YamlLinkStore implements LinkStore {
+
+    private final PluginConfiguration configuration;
+    private final String path;
+    private final ConcurrentLinkIndex links; // Discord ID <-> UUID
+
+    public YamlLinkStore() {
+        this.path = "accounts";
+        this.configuration = new PluginConfiguration(this.path);
+
+        LinkIndex links = new LinkIndex();
+        ConfigurationSection section = this.configuration.getConfig().getConfigurationSection(this.path);
+        if (section != null) {
+            section.getValues(false).forEach((id, uuid) -> links.put(Long.parseLong(id), UUID.fromString((String) uuid)));
+        }
+        this.links = new ConcurrentLinkIndex(links);
+    }
+
+    @Override
+    public UUID getUuid(long id) {
+        return this.links.getUuid(id);
+    }
+
+    @Override
+    public long getId(@NonNull UUID uuid) {
+        return this.links.getId(uuid);
+    }
+
+    @Override
+    public void link(long id, @NonNull UUID uuid) {
+        this.links.put(id, uuid);
+    }
+
+    @Override
+    public UUID unlink(long id) {
+        return this.links.removeId(id);
+    }
+
+    @Override
+    public long unlink(@NonNull UUID uuid) {
+        return this.links.removeUuid(uuid);
+    }
+
+    @Override
+    public void forEach(@NonNull ObjLongConsumer<UUID> consumer) {
+        this.links.copy().forEach(consumer);
+    }
+
+    @Override
+    public synchronized void close() {
+        LinkIndex links = this.links.copy();
+        Map<Long, String> stringMap = new HashMap<>(links.size() * 2);
+        links.forEach((uuid, id) -> stringMap.put(id, uuid.toString()));
+
+        this.configuration.getConfig().set(this.path, stringMap);
+        this.configuration.saveConfig();
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ *     This file is part of MinecraftDiscord.
+ *
+ *     MinecraftDiscord is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     MinecraftDiscord is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with MinecraftDiscord.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.jordieh.minecraftdiscord.util;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+import lombok.NonNull;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Collapses repeated console lines before they reach the {@link ConsoleBuffer}.
+ * Events are fingerprinted by their level, logger, message (with numbers left out) and the top frames of their
+ * stack trace, the first event of a fingerprint is relayed right away and all repeats within the window are reported
+ * once when the window closes. When too many windows are open the oldest one is closed early.
+ */
+public final class ConsoleAggregator {
+
+    private static final ConsoleAggregator instance = new ConsoleAggregator();
+
+    private static final long WINDOW = TimeUnit.SECONDS.toMillis(60);
+    private static final int FRAMES = 3; // Stack frames that are part of the fingerprint
+    private static final int MAXIMUM_FINGERPRINTS = 1024; // Open windows, the oldest is closed to open another one
+    private static final Pattern NUMBERS = Pattern.compile("\\d+");
+
+    private final Map<String, Window> windows; // Oldest first
+    private final ScheduledExecutorService executor;
+
+    private ConsoleAggregator() {
+        this.windows = new LinkedHashMap<>();
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ConsoleAggregator");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static ConsoleAggregator getInstance() {
+        return instance;
+    }
+
+    /**
+     * Relays the event to the console buffer, unless an event with the same fingerprint has been relayed
+     * within the current window
+     * @param event The logging event
+     */
+    public void append(@NonNull ILoggingEvent event) {
+        if (this.executor.isShutdown()) {
+            ConsoleWorker.getBuffer().offer(new ConsoleLine(event.getLevel().toInt(), event.getLoggerName(), render(event)));
+            return;
+        }
+
+        String fingerprint = fingerprint(event);
+        Window window;
+        Window evicted = null;
+        synchronized (this.windows) {
+            window = this.windows.get(fingerprint);
+            if (window != null) {
+                window.repeats++;
+                return;
+            }
+            if (this.windows.size() >= MAXIMUM_FINGERPRINTS) {
+                Iterator<Window> iterator = this.windows.values().iterator();
+                evicted = iterator.next();
+                iterator.remove();
+            }
+            window = new Window(event);
+            this.windows.put(fingerprint, window);
+        }
+
+        if (evicted != null) {
+            this.report(evicted);
+        }
+        ConsoleWorker.getBuffer().offer(new ConsoleLine(event.getLevel().toInt(), event.getLoggerName(), render(event)));
+        Window scheduled = window;
+        try {
+            this.executor.schedule(() -> this.close(fingerprint, scheduled), WINDOW, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shut down in the meantime, the repeats are not reported anymore
+        }
+    }
+
+    /**
+     * Closes all open windows so their repeats are reported and stops the timer, used when the plugin is disabled
+     */
+    public void shutdown() {
+        this.executor.shutdownNow();
+        List<Window> windows;
+        synchronized (this.windows) {
+            windows = new ArrayList<>(this.windows.values());
+            this.windows.clear();
+        }
+        windows.forEach(this::report);
+    }
+
+    private void close(String fingerprint, Window window) {
+        synchronized (this.windows) {
+            if (!this.windows.remove(fingerprint, window)) {
+                return; // Closed early
+            }
+        }
+        this.report(window);
+    }
+
+    /**
+     * Reports the repeats of a closed window, the first event has been relayed already
+     */
+    private void report(Window window) {
+        long repeats;
+        synchronized (this.windows) {
+            repeats = window.repeats;
+        }
+        if (repeats > 0) {
+            long seconds = Math.max(1, TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - window.start));
+            ConsoleWorker.getBuffer().offer(new ConsoleLine(window.level, window.logger, "[\u00D7" + repeats + " more in " + seconds + "s] " + window.message));
+        }
+    }
+
+    private static String fingerprint(ILoggingEvent event) {
+        StringBuilder builder = new StringBuilder();
+        // Numbers are left out, bridged records arrive already formatted with their arguments
+        builder.append(event.getLevel()).append('|').append(event.getLoggerName()).append('|')
+                .append(NUMBERS.matcher(String.valueOf(event.getMessage())).replaceAll("#"));
+
+        IThrowableProxy throwable = event.getThrowableProxy();
+        if (throwable != null) {
+            builder.append('|').append(throwable.getClassName());
+            StackTraceElementProxy[] frames = throwable.getStackTraceElementProxyArray();
+            for (int i = 0; frames != null && i < Math.min(FRAMES, frames.length); i++) {
+                builder.append('|').append(frames[i].getSTEAsString());
+            }
+        }
+        return builder.toString();
+    }
+
+    private static String render(ILoggingEvent event) {
+        IThrowableProxy throwable = event.getThrowableProxy();
+        if (throwable == null) {
+            return event.getFormattedMessage();
+        }
+
+        StringBuilder builder = new StringBuilder(event.getFormattedMessage());
+        builder.append('\n').append(throwable.getClassName());
+        if (throwable.getMessage() != null) {
+            builder.append(": ").append(throwable.getMessage());
+        }
+        StackTraceElementProxy[] frames = throwable.getStackTraceElementProxyArray();
+        for (int i = 0; frames != null && i < Math.min(FRAMES, frames.length); i++) {
+            builder.append("\n    ").append(frames[i].getSTEAsString());
+        }
+        return builder.toString();
+    }
+
+    private static final class Window {
+
+        private final int level;
+        private final String logger;
+        private final String message;
+        private final long start;
+        private long repeats; // Guarded by the windows
+
+        private Window(ILoggingEvent event) {
+            this.level = event.getLevel().toInt();
+            this.logger = event.getLoggerName();
+            this.message = FormatUtil.truncateString(event.getFormattedMessage(), 200);
+            this.start = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ *     This file is part of MinecraftDiscord.
+ *
+ *     MinecraftDiscord is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     MinecraftDiscord is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with MinecraftDiscord.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.jordieh.minecraftdiscord.util;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ring buffer of console lines that is bounded by the amount of memory its lines occupy.
+ * Offering never blocks, when the buffer is full the oldest lines are dropped and counted instead.
+ */
+public final class ConsoleBuffer {
+
+    private final ConsoleLine[] lines;
+    @Getter private final long capacity; // Bytes
+    private final int lineLimit; // Characters
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    private int head;
+    private int size;
+    private long bytes;
+    private long dropped;
+    private boolean closed;
+
+    /**
+     * @param lines The maximum amount of buffered lines
+     * @param capacity The maximum amount of bytes the buffered lines may occupy
+     * @param lineLimit The maximum length of a single line, longer lines are truncated
+     */
+    public ConsoleBuffer(int lines, long capacity, int lineLimit) {
+        this.lines = new ConsoleLine[Math.max(1, lines)];
+        this.capacity = Math.max(1, capacity);
+        this.lineLimit = Math.max(1, lineLimit);
+    }
+
+    private static long sizeOf(ConsoleLine line) {
+        return line.getText().length() * 2L; // Strings are stored as UTF-16
+    }
+
+    /**
+     * Adds a line to the buffer, dropping the oldest lines when there is no room left
+     * @param line The line to add
+     * @return false when the buffer has been closed
+     */
+    public boolean offer(@NonNull ConsoleLine line) {
+        if (line.getText().length() > this.lineLimit) {
+            line = new ConsoleLine(line.getLevel(), line.getLogger(), FormatUtil.truncateString(line.getText(), this.lineLimit));
+        }
+        long size = sizeOf(line);
+
+        this.lock.lock();
+        try {
+            if (this.closed) {
+                return false;
+            }
+
+            while (this.size > 0 && (this.size == this.lines.length || this.bytes + size > this.capacity)) {
+                this.remove();
+                this.dropped++;
+            }
+
+            this.lines[(this.head + this.size) % this.lines.length] = line;
+            this.size++;
+            this.bytes += size;
+            this.notEmpty.signal();
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the buffer contains at least one line
+     * @param timeout The maximum amount of milliseconds to wait
+     * @return true if there are lines available, false when the timeout elapsed or the buffer has been closed
+     * @throws InterruptedException when the thread has been interrupted while waiting
+     */
+    public boolean await(long timeout) throws InterruptedException {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+        this.lock.lock();
+        try {
+            while (this.size == 0 && !this.closed) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = this.notEmpty.awaitNanos(nanos);
+            }
+            return this.size > 0;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Moves all buffered lines into the collection
+     * @param collection The collection to add the lines to
+     * @return the amount of lines that have been moved
+     */
+    public int drainTo(@NonNull Collection<ConsoleLine> collection) {
+        int count = 0;
+        this.lock.lock();
+        try {
+            while (this.size > 0) {
+                collection.add(this.remove());
+                count++;
+            }
+            return count;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the amount of lines that have been dropped since the last call
+     */
+    public long takeDropped() {
+        this.lock.lock();
+        try {
+            long dropped = this.dropped;
+            this.dropped = 0;
+            return dropped;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Rejects all further lines and wakes up waiting threads, buffered lines can still be drained
+     */
+    public void close() {
+        this.lock.lock();
+        try {
+            this.closed = true;
+            this.notEmpty.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private ConsoleLine remove() {
+        ConsoleLine line = this.lines[this.head];
+        this.lines[this.head] = null;
+        this.head = (this.head + 1) % this.lines.length;
+        this.size--;
+        this.bytes -= sizeOf(line);
+        return line;
+    }
+}
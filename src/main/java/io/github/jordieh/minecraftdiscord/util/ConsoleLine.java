@@ -0,0 +1,38 @@
+/*
+ *     This file is part of MinecraftDiscord.
+ *
+ *     MinecraftDiscord is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     MinecraftDiscord is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with MinecraftDiscord.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.jordieh.minecraftdiscord.util;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * A rendered console line together with the level and logger it has been logged with, used for routing
+ */
+@Getter
+public final class ConsoleLine {
+
+    private final int level; // Logback level integer
+    private final String logger;
+    private final String text;
+
+    public ConsoleLine(int level, @NonNull String logger, @NonNull String text) {
+        this.level = level;
+        this.logger = logger;
+        this.text = text;
+    }
+}
@@ -17,57 +17,190 @@
 
 package io.github.jordieh.minecraftdiscord.util;
 
+import io.github.jordieh.minecraftdiscord.common.ConsoleRoute;
+import io.github.jordieh.minecraftdiscord.common.RequestPriority;
+import io.github.jordieh.minecraftdiscord.configuration.ConfigurationHandler;
+import io.github.jordieh.minecraftdiscord.configuration.ConfigurationSnapshot;
 import io.github.jordieh.minecraftdiscord.discord.ClientHandler;
+import io.github.jordieh.minecraftdiscord.discord.RequestScheduler;
 import io.github.jordieh.minecraftdiscord.world.ChannelHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import sx.blah.discord.handle.obj.IChannel;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
-import java.util.Queue;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.zip.GZIPOutputStream;
 
+/**
+ * Relays the buffered console lines to the channels of the configured console routes.
+ * The worker sleeps until a line arrives, and lingers longer while previous console messages are still
+ * waiting in the {@link RequestScheduler} so lines get packed into fewer messages.
+ * Bursts that exceed the spill threshold are sent as a single file attachment per flush instead.
+ */
 public final class ConsoleWorker extends Thread {
 
-    public static final Queue<String> queue = new LinkedBlockingDeque<>();
-    private static final String seperator = System.lineSeparator();
+    private final Logger logger = LoggerFactory.getLogger(ConsoleWorker.class);
+
+    private static final int MESSAGE_LIMIT = 2000; // Maximum amount of characters in a Discord message
+    private static final long MINIMUM_INTERVAL = 250L; // Milliseconds
+    private static final long MAXIMUM_INTERVAL = 5000L; // Milliseconds
+    private static final DateTimeFormatter FILE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
+
+    private static final int LINE_LIMIT = MESSAGE_LIMIT - 50; // Leaves room for the dropped lines notice
+
+    // Created before the bot is ready, so it also holds the startup backlog until the worker replays it
+    private static volatile ConsoleBuffer buffer = new ConsoleBuffer(4096, 512 * 1024, LINE_LIMIT);
+
+    private volatile boolean running = true;
+    private long interval = MINIMUM_INTERVAL;
 
     public ConsoleWorker() {
         super("ConsoleWorker");
+        this.setDaemon(true);
+    }
+
+    public static ConsoleBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Replaces the console buffer, only called by the {@link DiscordAppender} before it receives its first event
+     * @param lines The maximum amount of buffered lines
+     * @param capacity The maximum amount of bytes the buffered lines may occupy
+     */
+    static void configure(int lines, long capacity) {
+        buffer = new ConsoleBuffer(lines, capacity, LINE_LIMIT);
     }
 
     @Override
     public void run() {
-        while (true) {
-            Optional<IChannel> channel = ChannelHandler.getInstance().getConsoleChannel();
+        logger.debug("Replaying the console lines that have been logged before the bot was ready");
+        try {
+            while (this.running) {
+                if (!buffer.await(Long.MAX_VALUE)) {
+                    continue; // The buffer has been closed
+                }
+
+                // Give the burst some time to fill up the message, unless it already is full
+                Thread.sleep(this.interval);
+                this.flush();
+
+                if (RequestScheduler.getInstance().getQueued(RequestPriority.CONSOLE) > 0) {
+                    this.interval = Math.min(MAXIMUM_INTERVAL, this.interval * 2);
+                } else {
+                    this.interval = Math.max(MINIMUM_INTERVAL, this.interval / 2);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.flush();
+        logger.debug("ConsoleWorker has been stopped");
+    }
+
+    /**
+     * Stops accepting console lines, sends the remaining lines and waits for the worker to stop
+     * @param timeout The maximum time in milliseconds to wait
+     */
+    public void shutdown(long timeout) {
+        this.running = false;
+        buffer.close();
+        this.interrupt(); // Skip the remaining flush interval
+        try {
+            this.join(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flush() {
+        List<ConsoleLine> lines = new ArrayList<>();
+        buffer.drainTo(lines);
+        long dropped = buffer.takeDropped();
+        if (lines.isEmpty() && dropped == 0) {
+            return;
+        }
+
+        ConfigurationSnapshot configuration = ConfigurationHandler.getInstance().getSnapshot();
+        for (ConsoleRoute route : configuration.getConsoleRoutes()) {
+            Optional<IChannel> channel = ChannelHandler.getInstance().getConnectedChannel(route.getChannel());
             if (!channel.isPresent()) {
                 continue;
             }
 
-            StringBuilder builder = new StringBuilder();
-            String input = queue.poll();
-
-            while (input != null) {
-                if (builder.length() + input.length() >= 2000) {
-                    ClientHandler.getInstance().sendMessage(channel.get(), builder.toString());
-                    builder = new StringBuilder();
+            List<String> routed = new ArrayList<>();
+            int length = 0;
+            if (dropped > 0) { // Only reported once, in the first route that has a channel
+                String notice = "[" + dropped + " console lines have been dropped]";
+                routed.add(notice);
+                length += notice.length() + 1;
+                dropped = 0;
+            }
+            for (ConsoleLine line : lines) {
+                if (route.matches(line)) {
+                    routed.add(line.getText());
+                    length += line.getText().length() + 1;
                 }
+            }
 
-                builder.append(input);
-                builder.append(seperator);
-
-                input = queue.poll();
+            if (length == 0) {
+                continue;
             }
+            if (length > configuration.getConsoleSpillThreshold()) {
+                this.spill(channel.get(), routed, configuration.isConsoleSpillCompression());
+            } else {
+                this.send(channel.get(), routed);
+            }
+        }
+    }
 
-            String s = builder.toString();
-            if (!s.replace(seperator, "").isEmpty()) {
-                ClientHandler.getInstance().sendMessage(channel.get(), s);
+    /**
+     * Packs the lines into as few messages as possible
+     */
+    private void send(IChannel channel, List<String> lines) {
+        StringBuilder builder = new StringBuilder(MESSAGE_LIMIT);
+        for (String line : lines) {
+            if (builder.length() > 0 && builder.length() + line.length() + 1 > MESSAGE_LIMIT) {
+                ClientHandler.getInstance().sendMessage(channel, builder.toString(), RequestPriority.CONSOLE);
+                builder.setLength(0);
             }
+            if (builder.length() > 0) {
+                builder.append('\n');
+            }
+            builder.append(line);
+        }
+        if (builder.length() > 0) {
+            ClientHandler.getInstance().sendMessage(channel, builder.toString(), RequestPriority.CONSOLE);
+        }
+    }
 
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-                break;
+    /**
+     * Sends the lines as a single (compressed) log file
+     */
+    private void spill(IChannel channel, List<String> lines, boolean compress) {
+        byte[] content = String.join(System.lineSeparator(), lines).getBytes(StandardCharsets.UTF_8);
+        String name = "console_" + LocalDateTime.now().format(FILE_FORMAT) + ".log";
+
+        if (compress) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream(content.length / 4);
+            try (GZIPOutputStream stream = new GZIPOutputStream(output)) {
+                stream.write(content);
+            } catch (IOException e) {
+                logger.warn("Could not compress {} console lines", lines.size(), e);
+                return;
             }
+            content = output.toByteArray();
+            name = name + ".gz";
         }
+
+        String message = lines.size() + " console lines";
+        ClientHandler.getInstance().sendFile(channel, message, content, name, RequestPriority.CONSOLE);
     }
 }
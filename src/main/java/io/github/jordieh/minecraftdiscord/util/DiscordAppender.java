@@ -19,41 +19,31 @@ package io.github.jordieh.minecraftdiscord.util;
 
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.AppenderBase;
-import io.github.jordieh.minecraftdiscord.MinecraftDiscord;
-import io.github.jordieh.minecraftdiscord.discord.ClientHandler;
-import sx.blah.discord.handle.obj.IChannel;
+import io.github.jordieh.minecraftdiscord.discord.RequestScheduler;
+import lombok.Setter;
 
+/**
+ * Feeds log events into the console relay. Events are buffered from the moment logback starts,
+ * so everything that is logged before the bot is ready gets replayed once the {@link ConsoleWorker} starts.
+ * The size of the buffer can be set in logback.xml with {@code bufferLines} and {@code bufferSize} (bytes).
+ * Events of the {@link RequestScheduler} are only logged locally.
+ */
 public class DiscordAppender extends AppenderBase<ILoggingEvent> {
 
+    @Setter private int bufferLines = 4096;
+    @Setter private long bufferSize = 512 * 1024;
+
     @Override
-    protected void append(ILoggingEvent eventObject) {
-        ConsoleWorker.queue.add(eventObject.getMessage());
-//        if (!MinecraftDiscord.started) {
-//            MinecraftDiscord.queue.offer(eventObject.getMessage());
-//            return;
-//        }
-//        Optional<IChannel> channel = ChannelHandler.getInstance().getConnectedChannel("console");
-//        channel.ifPresent(channel1 -> ClientHandler.getInstance().sendMessage(channel1, eventObject.getMessage()));
+    public void start() {
+        ConsoleWorker.configure(this.bufferLines, this.bufferSize);
+        super.start();
     }
 
-    public static void process() {
-        if (MinecraftDiscord.started) {
-            return;
-        }
-        MinecraftDiscord.started = true;
-        IChannel channel = ClientHandler.getInstance().getClient()
-                .getChannels().stream()
-                .filter(c -> c.getName().equalsIgnoreCase("console"))
-                .findFirst().orElse(null);
-        if (channel == null) {
-            return;
+    @Override
+    protected void append(ILoggingEvent eventObject) {
+        if (RequestScheduler.class.getName().equals(eventObject.getLoggerName())) {
+            return; // Reports full request queues, relaying it would only queue more requests
         }
-
-        new Thread(() -> {
-            while (!MinecraftDiscord.queue.isEmpty()) {
-                String s = MinecraftDiscord.queue.poll();
-                ClientHandler.getInstance().sendMessage(channel, s);
-            }
-        }, "ConsoleQueueWorker").start();
+        ConsoleAggregator.getInstance().append(eventObject);
     }
 }
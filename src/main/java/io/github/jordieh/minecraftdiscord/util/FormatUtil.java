@@ -17,30 +17,21 @@
 
 package io.github.jordieh.minecraftdiscord.util;
 
-import io.github.jordieh.minecraftdiscord.MinecraftDiscord;
+import io.github.jordieh.minecraftdiscord.common.Pair;
+import io.github.jordieh.minecraftdiscord.configuration.ConfigurationHandler;
 import lombok.NonNull;
 import org.bukkit.ChatColor;
 import sx.blah.discord.handle.obj.IUser;
 
-import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 public class FormatUtil {
 
     static {
-        regexMap = MinecraftDiscord.getInstance().getConfig()
-                .getConfigurationSection("translated-expressions")
-                .getValues(false)
-                .entrySet()
-                .stream()
-                .filter(e -> e.getValue() instanceof String)
-                .collect(Collectors.toMap(Map.Entry::getKey, e -> (String) e.getValue()));
         pattern = Pattern.compile("(?<text>[\\S ]*)");
     }
 
-    private static Map<String, String> regexMap;
     private static Pattern pattern; // Conversion pattern to prevent return and newlines from Discord
 
     public static String formatRegex(String s) {
@@ -52,8 +43,9 @@ public class FormatUtil {
         }
 
         s = builder.toString();
-        for (Map.Entry<String, String> entry : regexMap.entrySet()) {
-            s = s.replaceAll(entry.getKey(), entry.getValue());
+        // The expressions are compiled once per configuration snapshot
+        for (Pair<Pattern, String> expression : ConfigurationHandler.getInstance().getSnapshot().getTranslatedExpressions()) {
+            s = expression.getLeft().matcher(s).replaceAll(expression.getRight());
         }
         return s;
     }
@@ -67,8 +59,7 @@ public class FormatUtil {
     }
 
     public static String avatarUrl(String uuid) {
-        return MinecraftDiscord.getInstance().getConfig().getString("options.message-render")
-                .replace("<uuid>", uuid);
+        return ConfigurationHandler.getInstance().getSnapshot().getMessageRender().replace("<uuid>", uuid);
     }
 
     public static String usuableTag(IUser user) {
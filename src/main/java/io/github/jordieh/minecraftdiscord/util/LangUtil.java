@@ -18,6 +18,7 @@
 package io.github.jordieh.minecraftdiscord.util;
 
 import io.github.jordieh.minecraftdiscord.MinecraftDiscord;
+import io.github.jordieh.minecraftdiscord.configuration.ConfigurationHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -65,7 +66,7 @@ public class LangUtil {
         languageBundle = resourceBundle;
         formatMap = new HashMap<>();
 
-        updateLocale(MinecraftDiscord.getInstance().getConfig().getString("options.language"));
+        updateLocale(ConfigurationHandler.getInstance().getSnapshot().getLanguage());
 
     }
 
@@ -17,19 +17,16 @@
 
 package io.github.jordieh.minecraftdiscord.world;
 
-import io.github.jordieh.minecraftdiscord.MinecraftDiscord;
+import io.github.jordieh.minecraftdiscord.configuration.ConfigurationHandler;
 import io.github.jordieh.minecraftdiscord.dependencies.Dependency;
 import io.github.jordieh.minecraftdiscord.discord.ClientHandler;
-import lombok.Getter;
 import lombok.NonNull;
-import org.bukkit.configuration.file.FileConfiguration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import sx.blah.discord.handle.obj.IChannel;
 
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 public final class ChannelHandler {
 
@@ -37,46 +34,37 @@ public final class ChannelHandler {
 
     private static ChannelHandler instance;
 
-    @Getter private Map<String, Long> longMap;
-    private Map<String, Long> integrationMap;
-
     private ChannelHandler() {
-        FileConfiguration configuration = MinecraftDiscord.getInstance().getConfig();
-
-        this.longMap = configuration.getConfigurationSection("channels").getValues(false)
-                .entrySet()
-                .stream()
-                .filter(e -> !e.getKey().contains("@")) // This indicates a plugin hook and should not be registered here
-                .filter(e -> e.getValue() instanceof Long)
-                .collect(Collectors.toMap(Map.Entry::getKey, e -> (Long) e.getValue()));
-
-        this.integrationMap = configuration.getConfigurationSection("channels").getValues(false)
-                .entrySet()
-                .stream()
-                .filter(e -> e.getKey().contains("@"))
-                .filter(e -> e.getValue() instanceof Long)
-                .collect(Collectors.toMap(Map.Entry::getKey, e -> (Long) e.getValue()));
     }
 
     public static ChannelHandler getInstance() {
         return instance == null ? instance = new ChannelHandler() : instance;
     }
 
+    /**
+     * @return the connected channels of the current configuration snapshot, changes with every reload
+     */
+    public Map<String, Long> getLongMap() {
+        return ConfigurationHandler.getInstance().getSnapshot().getChannels();
+    }
+
     public Optional<IChannel> getIntegrationChannel(@NonNull String name, @NonNull Dependency dependency) {
         String channel = dependency.getName() + "@" + name;
         logger.debug("Attempting to retrieve integration channel {}", channel);
-        if (!this.integrationMap.containsKey(channel)) {
+        Long id = ConfigurationHandler.getInstance().getSnapshot().getIntegrationChannels().get(channel);
+        if (id == null) {
             return Optional.empty();
         }
-        return Optional.ofNullable(ClientHandler.getInstance().getClient().getChannelByID(this.integrationMap.get(channel)));
+        return Optional.ofNullable(ClientHandler.getInstance().getClient().getChannelByID(id));
     }
 
     public Optional<IChannel> getConnectedChannel(@NonNull String name) {
         logger.debug("Attempting to retrieve connected channel {}", name);
-        if (!this.longMap.containsKey(name)) {
+        Long id = this.getLongMap().get(name);
+        if (id == null) {
             return Optional.empty();
         }
-        return Optional.ofNullable(ClientHandler.getInstance().getClient().getChannelByID(this.longMap.get(name)));
+        return Optional.ofNullable(ClientHandler.getInstance().getClient().getChannelByID(id));
     }
 
     public Optional<IChannel> getGlobalChannel() {
@@ -84,6 +72,6 @@ public final class ChannelHandler {
     }
 
     public Optional<IChannel> getConsoleChannel() {
-        return getConnectedChannel("global");
+        return getConnectedChannel("console");
     }
 }
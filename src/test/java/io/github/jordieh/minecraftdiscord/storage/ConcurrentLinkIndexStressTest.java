@@ -0,0 +1,123 @@
+/*
+ *     This file is part of MinecraftDiscord.
+ *
+ *     MinecraftDiscord is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     MinecraftDiscord is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public License
+ *     along with MinecraftDiscord.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package io.github.jordieh.minecraftdiscord.storage;
+
+import io.github.jordieh.minecraftdiscord.common.LinkIndex;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Races optimistic lookups against a writer that keeps growing, shrinking and rehashing the index.
+ * Every ID is only ever linked to the UUID derived from it, so any other result is a torn read that got through.
+ */
+public class ConcurrentLinkIndexStressTest {
+
+    private static final int READERS = 4;
+    private static final long DURATION = TimeUnit.SECONDS.toNanos(3);
+    private static final int ANCHORS = 64; // Links that never change
+    private static final int CHURN = 4096; // Links that are added and removed, the tables resize as they grow
+
+    @Test
+    public void lookupsNeverObserveTornLinks() throws InterruptedException {
+        ConcurrentLinkIndex index = new ConcurrentLinkIndex(new LinkIndex());
+        for (long id = 1; id <= ANCHORS; id++) {
+            index.put(id, uuid(id));
+        }
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicLong lookups = new AtomicLong();
+        long deadline = System.nanoTime() + DURATION;
+
+        Thread writer = new Thread(() -> {
+            try {
+                while (System.nanoTime() < deadline && failure.get() == null) {
+                    for (long id = ANCHORS + 1; id <= ANCHORS + CHURN; id++) {
+                        index.put(id, uuid(id));
+                    }
+                    for (long id = ANCHORS + 1; id <= ANCHORS + CHURN; id++) {
+                        if ((id & 1) == 0) {
+                            index.removeId(id);
+                        } else {
+                            index.removeUuid(uuid(id));
+                        }
+                    }
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        }, "writer");
+
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            readers.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long count = 0;
+                try {
+                    while (System.nanoTime() < deadline && failure.get() == null) {
+                        long anchor = 1 + random.nextInt(ANCHORS);
+                        assertEquals(uuid(anchor), index.getUuid(anchor));
+                        assertEquals(anchor, index.getId(uuid(anchor)));
+
+                        long id = ANCHORS + 1 + random.nextInt(CHURN);
+                        UUID uuid = index.getUuid(id);
+                        assertTrue("ID " + id + " resolved to " + uuid, uuid == null || uuid.equals(uuid(id)));
+                        long resolved = index.getId(uuid(id));
+                        assertTrue("UUID of " + id + " resolved to " + resolved, resolved == LinkIndex.NONE || resolved == id);
+
+                        assertNull(index.getUuid(Long.MAX_VALUE - id)); // Never linked
+                        count++;
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+                lookups.addAndGet(count);
+            }, "reader-" + i));
+        }
+
+        writer.start();
+        readers.forEach(Thread::start);
+        long timeout = TimeUnit.NANOSECONDS.toMillis(DURATION) + 10000L; // A lookup that never ends fails the test
+        writer.join(timeout);
+        for (Thread reader : readers) {
+            reader.join(timeout);
+            assertFalse(reader.getName() + " did not finish", reader.isAlive());
+        }
+        assertFalse("The writer did not finish", writer.isAlive());
+
+        if (failure.get() != null) {
+            throw new AssertionError("Failed after " + lookups.get() + " lookups", failure.get());
+        }
+        assertTrue(lookups.get() > 0);
+    }
+
+    private static UUID uuid(long id) {
+        return new UUID(id * 0x9E3779B97F4A7C15L, ~id);
+    }
+}